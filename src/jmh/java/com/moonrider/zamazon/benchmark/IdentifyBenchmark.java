@@ -0,0 +1,169 @@
+package com.moonrider.zamazon.benchmark;
+
+import com.moonrider.zamazon.ContactServiceApplication;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import com.moonrider.zamazon.service.ContactService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Benchmarks ContactService.identify against an embedded H2 database holding
+// tableSize contacts in clusters of clusterSize. Run through the jmh Maven
+// profile; "-prof gc" (on by default there) adds the allocation rate, and the
+// statements Hibernate prepared are printed as queries/op after every
+// iteration.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdentifyBenchmark {
+
+    @Param({ "10000", "100000" })
+    private int tableSize;
+
+    @Param({ "10", "100" })
+    private int clusterSize;
+
+    private ConfigurableApplicationContext context;
+    private ContactService contactService;
+    private JdbcTemplate jdbcTemplate;
+    private Statistics statistics;
+
+    private int clusters;
+    private long unique;
+    private long operations;
+    private long statementsAtStart;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = new SpringApplicationBuilder(ContactServiceApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:jmh;LOCK_TIMEOUT=10000",
+                        "spring.jpa.show-sql=false",
+                        "spring.jpa.properties.hibernate.generate_statistics=true",
+                        "logging.level.root=WARN")
+                .run();
+        contactService = context.getBean(ContactService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+
+        clusters = tableSize / clusterSize;
+        LocalDateTime createdAt = LocalDateTime.now().minusDays(1);
+        for (int c = 0; c < clusters; c++) {
+            insertCluster("bench" + c, "5" + c, createdAt);
+        }
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        operations = 0;
+        statementsAtStart = statistics.getPrepareStatementCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportQueries() {
+        long statements = statistics.getPrepareStatementCount() - statementsAtStart;
+        System.out.printf("%n  queries/op: %.2f (%d statements, %d ops)%n",
+                (double) statements / Math.max(operations, 1), statements, operations);
+    }
+
+    // Two fresh clusters per merge invocation, the first one older. Set up
+    // outside the measured time and through JDBC, so they are not counted as
+    // queries; a separate state keeps the other scenarios free of them.
+    @State(Scope.Thread)
+    public static class MergeInput {
+
+        private String survivorEmail;
+        private String mergedPhoneNumber;
+
+        @Setup(Level.Invocation)
+        public void prepare(IdentifyBenchmark benchmark) {
+            long n = benchmark.unique++;
+            benchmark.insertCluster("survivor" + n, "60" + n, LocalDateTime.now().minusMinutes(2));
+            benchmark.insertCluster("merged" + n, "61" + n, LocalDateTime.now().minusMinutes(1));
+            survivorEmail = "survivor" + n + "_0@timelab.com";
+            mergedPhoneNumber = "61" + n;
+        }
+    }
+
+    @Benchmark
+    public IdentifyResponse newPrimary() {
+        long n = unique++;
+        operations++;
+        return contactService.identify(new IdentifyRequest("new" + n + "@timelab.com", "8" + n));
+    }
+
+    @Benchmark
+    public IdentifyResponse knownPair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int c = random.nextInt(clusters);
+        operations++;
+        return contactService.identify(new IdentifyRequest(
+                "bench" + c + "_" + random.nextInt(clusterSize) + "@timelab.com", "5" + c));
+    }
+
+    // Each call adds one row to a random cluster; spread over all clusters the
+    // growth stays small against clusterSize for a benchmark run
+    @Benchmark
+    public IdentifyResponse newSecondary() {
+        int c = ThreadLocalRandom.current().nextInt(clusters);
+        long n = unique++;
+        operations++;
+        return contactService.identify(new IdentifyRequest("bench" + c + "_0@timelab.com", "7" + n));
+    }
+
+    @Benchmark
+    public IdentifyResponse merge(MergeInput input) {
+        operations++;
+        return contactService.identify(new IdentifyRequest(input.survivorEmail, input.mergedPhoneNumber));
+    }
+
+    // One primary carrying the phone number plus (clusterSize - 1) email-only
+    // secondaries, with ids drawn from contacts_seq a block of 50 at a time
+    private void insertCluster(String prefix, String phoneNumber, LocalDateTime createdAt) {
+        List<Object[]> rows = new ArrayList<>(clusterSize);
+        Timestamp timestamp = Timestamp.valueOf(createdAt);
+        long blockStart = 0;
+        long primaryId = 0;
+        for (int i = 0; i < clusterSize; i++) {
+            if (i % 50 == 0) {
+                blockStart = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR contacts_seq", Long.class);
+            }
+            long id = blockStart + i % 50;
+            String email = prefix + "_" + i + "@timelab.com";
+            if (i == 0) {
+                primaryId = id;
+                rows.add(new Object[] { id, email, phoneNumber, ContactNormalizer.emailKey(email),
+                        ContactNormalizer.phoneKey(phoneNumber), null, "PRIMARY", id, timestamp });
+            } else {
+                rows.add(new Object[] { id, email, null, ContactNormalizer.emailKey(email), null, primaryId,
+                        "SECONDARY", primaryId, timestamp });
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO contacts (id, email, phone_number, email_key, phone_key, linked_id, "
+                + "link_precedence, root_primary_id, created_at, updated_at) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)", rows);
+    }
+}
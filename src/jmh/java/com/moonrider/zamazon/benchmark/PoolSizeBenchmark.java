@@ -0,0 +1,107 @@
+package com.moonrider.zamazon.benchmark;
+
+import com.moonrider.zamazon.ContactServiceApplication;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.service.BatchIdentifyService;
+import com.moonrider.zamazon.service.IdentifyCoordinator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load test of identify throughput against the connection pool size of the
+// prod profile: 32 threads share a pool of poolSize connections, with nine
+// known pairs for every new secondary and the cluster cache off, so every
+// request takes a connection. The mean wait for a connection is printed
+// after every iteration. By default the database is the profile's local
+// stand-in, a file-mode H2 in PostgreSQL mode under target/; point it at a
+// real server with
+//   -Djmh.args="PoolSizeBenchmark -jvmArgs -Dbench.db.url=jdbc:postgresql://host/db -jvmArgs -Dbench.db.username=u"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class PoolSizeBenchmark {
+
+    private static final int CLUSTERS = 10_000;
+
+    @Param({ "2", "4", "8", "16", "32" })
+    private int poolSize;
+
+    private ConfigurableApplicationContext context;
+    private IdentifyCoordinator identifyCoordinator;
+    private Timer acquireTimer;
+
+    private final AtomicLong unique = new AtomicLong(System.currentTimeMillis() * 1000);
+    private long acquiredAtStart;
+    private double acquireNanosAtStart;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        String url = System.getProperty("bench.db.url",
+                "jdbc:h2:file:./target/jmh-pool/contacts;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;LOCK_TIMEOUT=10000");
+        context = new SpringApplicationBuilder(ContactServiceApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("prod")
+                .properties("DB_URL=" + url,
+                        "DB_USERNAME=" + System.getProperty("bench.db.username", "sa"),
+                        "DB_PASSWORD=" + System.getProperty("bench.db.password", ""),
+                        "DB_POOL_SIZE=" + poolSize,
+                        "contact.cache.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+        identifyCoordinator = context.getBean(IdentifyCoordinator.class);
+        acquireTimer = context.getBean(MeterRegistry.class).find("hikaricp.connections.acquire").timer();
+
+        // Identify is idempotent, so trials after the first find these
+        // clusters in place and add nothing
+        List<IdentifyRequest> seed = new ArrayList<>(CLUSTERS);
+        for (int c = 0; c < CLUSTERS; c++) {
+            seed.add(new IdentifyRequest("pool" + c + "@timelab.com", "6" + c));
+        }
+        context.getBean(BatchIdentifyService.class).identifyAll(seed);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        if (acquireTimer != null) {
+            acquiredAtStart = acquireTimer.count();
+            acquireNanosAtStart = acquireTimer.totalTime(TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportAcquireTime() {
+        if (acquireTimer != null) {
+            long acquired = acquireTimer.count() - acquiredAtStart;
+            double nanos = acquireTimer.totalTime(TimeUnit.NANOSECONDS) - acquireNanosAtStart;
+            System.out.printf("%n  connection wait: %.3f ms mean over %d acquisitions%n",
+                    nanos / Math.max(acquired, 1) / 1_000_000, acquired);
+        }
+    }
+
+    @Benchmark
+    public IdentifyResponse identify() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int c = random.nextInt(CLUSTERS);
+        String phoneNumber = random.nextInt(10) == 0 ? "7" + unique.incrementAndGet() : "6" + c;
+        return identifyCoordinator.identify(new IdentifyRequest("pool" + c + "@timelab.com", phoneNumber));
+    }
+}
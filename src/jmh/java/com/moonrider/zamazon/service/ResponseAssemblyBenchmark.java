@@ -0,0 +1,120 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.entity.Contact;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Compares the in-memory part of answering a known pair from a loaded
+// cluster (settled check, primary lookup, response assembly) as the stream
+// pipelines did it against the current single-pass helpers. No database is
+// involved; run with "-prof gc" (the jmh profile's default) and compare
+// gc.alloc.rate.norm, the bytes allocated per operation. Lives in the service
+// package because the helpers are package-private.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseAssemblyBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    private int clusterSize;
+
+    private List<Contact> cluster;
+    private IdentifyRequest request;
+
+    // Same shape as IdentifyBenchmark's clusters: one primary carrying the
+    // phone number plus email-only secondaries
+    @Setup(Level.Trial)
+    public void buildCluster() {
+        LocalDateTime createdAt = LocalDateTime.now().minusDays(1);
+        cluster = new ArrayList<>(clusterSize);
+        for (int i = 0; i < clusterSize; i++) {
+            Contact contact = new Contact("bench_" + i + "@timelab.com", i == 0 ? "500" : null,
+                    i == 0 ? Contact.LinkPrecedence.PRIMARY : Contact.LinkPrecedence.SECONDARY);
+            contact.setId(1000L + i);
+            contact.setLinkedId(i == 0 ? null : 1000L);
+            contact.setRootPrimaryId(1000L);
+            contact.setCreatedAt(createdAt);
+            cluster.add(contact);
+        }
+        Collections.shuffle(cluster, new Random(42));
+        request = new IdentifyRequest("bench_" + (clusterSize - 1) + "@timelab.com", "500");
+    }
+
+    @Benchmark
+    public IdentifyResponse streams() {
+        if (!streamIsSettled(request, cluster)) {
+            throw new IllegalStateException("Cluster is expected to be settled");
+        }
+        return streamBuildResponse(streamFindPrimaryContact(cluster), cluster);
+    }
+
+    @Benchmark
+    public IdentifyResponse singlePass() {
+        if (!ContactService.isSettled(request, cluster)) {
+            throw new IllegalStateException("Cluster is expected to be settled");
+        }
+        return ContactService.buildResponse(ContactService.findPrimaryContact(cluster), cluster);
+    }
+
+    // The helpers as they were written before the single-pass versions
+
+    private static boolean streamIsSettled(IdentifyRequest request, List<Contact> cluster) {
+        boolean emailExists = request.getEmail() == null ||
+                cluster.stream().anyMatch(c -> request.getEmail().equals(c.getEmail()));
+        boolean phoneExists = request.getPhoneNumber() == null ||
+                cluster.stream().anyMatch(c -> request.getPhoneNumber().equals(c.getPhoneNumber()));
+        if (!(emailExists && phoneExists)) {
+            return false;
+        }
+
+        List<Contact> primaries = cluster.stream()
+                .filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY)
+                .collect(Collectors.toList());
+        if (primaries.size() != 1) {
+            return false;
+        }
+
+        Long rootId = primaries.get(0).getId();
+        return cluster.stream().allMatch(c -> rootId.equals(c.getRootPrimaryId()));
+    }
+
+    private static Contact streamFindPrimaryContact(List<Contact> contacts) {
+        return contacts.stream()
+                .filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY)
+                .min(Comparator.comparing(Contact::getCreatedAt))
+                .orElseThrow(() -> new RuntimeException("No primary contact found"));
+    }
+
+    private static IdentifyResponse streamBuildResponse(Contact primaryContact, List<Contact> allContacts) {
+        List<String> emails = allContacts.stream()
+                .map(Contact::getEmail)
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+
+        List<String> phoneNumbers = allContacts.stream()
+                .map(Contact::getPhoneNumber)
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+
+        List<Long> secondaryContactIds = allContacts.stream()
+                .filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.SECONDARY)
+                .map(Contact::getId)
+                .sorted()
+                .collect(Collectors.toList());
+
+        return new IdentifyResponse(primaryContact.getId(), emails, phoneNumbers, secondaryContactIds);
+    }
+}
@@ -1,10 +1,18 @@
-
 package com.moonrider.zamazon;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.data.r2dbc.R2dbcDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.r2dbc.R2dbcRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcTransactionManagerAutoConfiguration;
 
-@SpringBootApplication
+// R2DBC is only used by the reactive profile, which sets it up itself in
+// ReactiveDataConfig; left to auto-configuration it would open a second
+// connection pool in every profile and register a transaction manager that
+// competes with JPA's for @Transactional.
+@SpringBootApplication(exclude = { R2dbcAutoConfiguration.class, R2dbcDataAutoConfiguration.class,
+        R2dbcRepositoriesAutoConfiguration.class, R2dbcTransactionManagerAutoConfiguration.class })
 public class ContactServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(ContactServiceApplication.class, args);
@@ -1,35 +1,181 @@
 package com.moonrider.zamazon.Controller;
 
+import com.moonrider.zamazon.dto.BatchIdentifyResult;
+import com.moonrider.zamazon.dto.ClusterPage;
+import com.moonrider.zamazon.dto.ContactInvariantReport;
 import com.moonrider.zamazon.dto.IdentifyRequest;
 import com.moonrider.zamazon.dto.IdentifyResponse;
-import com.moonrider.zamazon.service.ContactService;
+import com.moonrider.zamazon.dto.IdentityGraphReport;
+import com.moonrider.zamazon.exception.IdentityGraphUnavailableException;
+import com.moonrider.zamazon.service.BatchIdentifyService;
+import com.moonrider.zamazon.service.ContactDeletionService;
+import com.moonrider.zamazon.service.ContactExportService;
+import com.moonrider.zamazon.service.ContactIntegrityService;
+import com.moonrider.zamazon.service.ContactQueryService;
+import com.moonrider.zamazon.service.IdentifyCoordinator;
+import com.moonrider.zamazon.service.IdentifyETags;
+import com.moonrider.zamazon.service.IdentityGraph;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
+// Spring MVC endpoints; the reactive profile serves /api/identify from
+// ReactiveContactController instead
 @RestController
 @RequestMapping("/api")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ContactController {
 
+    private static final Logger log = LoggerFactory.getLogger(ContactController.class);
+
+    @Autowired
+    private IdentifyCoordinator identifyCoordinator;
+
+    @Autowired
+    private IdentifyETags identifyETags;
+
+    @Autowired
+    private BatchIdentifyService batchIdentifyService;
+
+    @Autowired
+    private ContactIntegrityService contactIntegrityService;
+
     @Autowired
-    private ContactService contactService;
+    private ContactExportService contactExportService;
 
+    @Autowired
+    private ContactQueryService contactQueryService;
+
+    @Autowired
+    private ContactDeletionService contactDeletionService;
+
+    @Autowired(required = false)
+    private IdentityGraph identityGraph;
+
+    // Largest JSON array accepted by the batch endpoint; bigger jobs stream NDJSON
+    @Value("${contact.batch.max-items:10000}")
+    private int maxBatchItems = 10000;
+
+    // Responses carry an ETag of the cluster version. A request that sends it
+    // back in If-None-Match gets 304 while the cluster is unchanged, checked
+    // without loading it. The identity graph runs ahead of the table the
+    // versions live in, so it answers every request in full.
     @PostMapping("/identify")
-    public ResponseEntity<?> identify(@RequestBody IdentifyRequest request) {
+    public ResponseEntity<?> identify(@RequestBody IdentifyRequest request,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            IdentifyResponse response = contactService.identify(request);
-            return ResponseEntity.ok(response);
+            if (identityGraph == null) {
+                Optional<String> current = identifyETags.findCurrent(request, ifNoneMatch);
+                if (current.isPresent()) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(current.get()).build();
+                }
+            }
+            IdentifyResponse response = identifyCoordinator.identify(request);
+            String etag = identifyETags.tagOf(request, response);
+            return etag != null ? ResponseEntity.ok().eTag(etag).body(response) : ResponseEntity.ok(response);
         } catch (IllegalArgumentException e) {
             return createErrorResponse(HttpStatus.BAD_REQUEST, "Invalid request parameters");
+        } catch (IdentityGraphUnavailableException e) {
+            return createErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, "Service temporarily unavailable");
         } catch (Exception e) {
+            // The client only sees a generic message, so keep the cause here
+            log.error("Identify request failed", e);
             return createErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Service temporarily unavailable");
         }
     }
 
+    // Bulk identify. Results come back in input order, one per request, each
+    // with its own status, so invalid items do not fail the whole batch.
+    @PostMapping(value = "/identify/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> identifyBatch(@RequestBody List<IdentifyRequest> requests) {
+        if (requests.size() > maxBatchItems) {
+            return createErrorResponse(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Batch exceeds " + maxBatchItems + " items, send it as application/x-ndjson");
+        }
+        List<BatchIdentifyResult> results = batchIdentifyService.identifyAll(requests);
+        return ResponseEntity.ok(results);
+    }
+
+    // Streaming variant: one IdentifyRequest per line in, one result per line
+    // out, with no limit on the number of lines.
+    @PostMapping(value = "/identify/batch", consumes = "application/x-ndjson")
+    public void identifyBatchStream(InputStream body, HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        batchIdentifyService.identifyStream(body, response.getOutputStream());
+    }
+
+    // Every active cluster as NDJSON, one identify response per line, written
+    // to the response while the table is read.
+    @GetMapping(value = "/contacts/export", produces = "application/x-ndjson")
+    public void exportClusters(HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        contactExportService.exportClusters(response.getOutputStream());
+    }
+
+    // Every active contact of the cluster of an active primary
+    @GetMapping("/contacts/{primaryId}/cluster")
+    public ResponseEntity<?> getCluster(@PathVariable long primaryId) {
+        return contactQueryService.findCluster(primaryId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> createErrorResponse(HttpStatus.NOT_FOUND, "No active primary contact " + primaryId));
+    }
+
+    // Clusters in primary id order. Pages are keyed on the last primary id of
+    // the previous page (nextAfter), not on an offset.
+    @GetMapping("/clusters")
+    public ResponseEntity<ClusterPage> listClusters(@RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(contactQueryService.listClusters(after, limit));
+    }
+
+    // Soft-deletes a contact; deleting a primary promotes the oldest
+    // remaining contact of its cluster. The identity graph keeps contacts in
+    // memory and has no delete, so the endpoint is off while it is enabled.
+    @DeleteMapping("/contacts/{id}")
+    public ResponseEntity<?> deleteContact(@PathVariable long id) {
+        if (identityGraph != null) {
+            return createErrorResponse(HttpStatus.CONFLICT,
+                    "Contacts cannot be deleted while the identity graph is enabled");
+        }
+        if (!contactDeletionService.delete(id)) {
+            return createErrorResponse(HttpStatus.NOT_FOUND, "No active contact " + id);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    // Read-only consistency check of the cluster root column; safe to call
+    // against the live table.
+    @GetMapping("/contacts/invariants")
+    public ResponseEntity<ContactInvariantReport> checkInvariants() {
+        return ResponseEntity.ok(contactIntegrityService.checkInvariants());
+    }
+
+    // Compares the in-memory identity graph with the table after draining its
+    // write-behind log; identify requests wait while it runs.
+    @GetMapping("/contacts/graph/consistency")
+    public ResponseEntity<?> checkGraphConsistency() {
+        if (identityGraph == null) {
+            return createErrorResponse(HttpStatus.NOT_FOUND, "Identity graph is not enabled");
+        }
+        IdentityGraphReport report = identityGraph.checkConsistency();
+        return ResponseEntity.ok(report);
+    }
+
     private ResponseEntity<Map<String, String>> createErrorResponse(HttpStatus status, String message) {
         Map<String, String> error = new HashMap<>();
         error.put("error", message);
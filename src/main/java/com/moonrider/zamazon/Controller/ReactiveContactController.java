@@ -0,0 +1,48 @@
+package com.moonrider.zamazon.Controller;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.service.ReactiveContactService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// WebFlux /api/identify for the reactive profile, with the same request,
+// response and error bodies as ContactController.identify
+@RestController
+@RequestMapping("/api")
+@Profile("reactive")
+public class ReactiveContactController {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveContactController.class);
+
+    @Autowired
+    private ReactiveContactService reactiveContactService;
+
+    @PostMapping("/identify")
+    public Mono<ResponseEntity<?>> identify(@RequestBody IdentifyRequest request) {
+        return reactiveContactService.identify(request)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class,
+                        e -> Mono.just(createErrorResponse(HttpStatus.BAD_REQUEST, "Invalid request parameters")))
+                .onErrorResume(e -> {
+                    log.error("Identify request failed", e);
+                    return Mono.just(createErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR,
+                            "Service temporarily unavailable"));
+                });
+    }
+
+    private ResponseEntity<Map<String, String>> createErrorResponse(HttpStatus status, String message) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", message);
+        error.put("status", String.valueOf(status.value()));
+        return ResponseEntity.status(status).body(error);
+    }
+}
@@ -18,6 +18,7 @@ public class WebConfig implements WebMvcConfigurer {
                         "https://www.zamazon.com")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
+                .exposedHeaders("ETag") // Cluster version of identify responses
                 .allowCredentials(true); // Allow cookies, auth headers
     }
 }
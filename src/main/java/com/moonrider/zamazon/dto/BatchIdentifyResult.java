@@ -0,0 +1,32 @@
+package com.moonrider.zamazon.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchIdentifyResult {
+
+    // Position of the request in the submitted batch
+    private int index;
+
+    // Same status the single identify endpoint would have answered with
+    private int status;
+
+    private IdentifyResponse contact;
+
+    private String error;
+
+    public static BatchIdentifyResult success(int index, IdentifyResponse contact) {
+        return new BatchIdentifyResult(index, 200, contact, null);
+    }
+
+    public static BatchIdentifyResult failure(int index, int status, String error) {
+        return new BatchIdentifyResult(index, status, null, error);
+    }
+}
@@ -0,0 +1,19 @@
+package com.moonrider.zamazon.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterPage {
+
+    // Clusters in primary id order, each as identify would answer for it
+    private List<IdentifyResponse> clusters;
+
+    // Pass as "after" to get the next page; null on the last page
+    private Long nextAfter;
+}
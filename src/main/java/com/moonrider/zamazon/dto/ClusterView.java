@@ -0,0 +1,18 @@
+package com.moonrider.zamazon.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterView {
+
+    private Long primaryContactId;
+
+    // Every active contact of the cluster, the primary included, by id
+    private List<ContactSummary> contacts;
+}
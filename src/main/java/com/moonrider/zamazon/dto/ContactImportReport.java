@@ -0,0 +1,29 @@
+package com.moonrider.zamazon.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContactImportReport {
+
+    private String importName;
+
+    // Rows already imported by an earlier run when this one started
+    private long resumedAtRow;
+
+    // Totals over every run of the import
+    private long rowsRead;
+
+    private long rowsImported;
+
+    // Rows that could not be parsed or had neither email nor phone number
+    private long rowsInvalid;
+
+    // Rows whose identify failed; they are not retried on resume
+    private long rowsFailed;
+
+    private boolean completed;
+}
@@ -0,0 +1,28 @@
+package com.moonrider.zamazon.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContactInvariantReport {
+
+    // Active contacts that have no rootPrimaryId yet
+    private long missingRootPrimaryId;
+
+    // Primaries whose rootPrimaryId is not their own id
+    private long primariesNotOwnRoot;
+
+    // Secondaries whose rootPrimaryId does not name an active primary
+    private long secondariesWithInvalidRoot;
+
+    // Contacts whose root differs from the root of the contact they link to
+    private long contactsWithDivergentRoot;
+
+    public boolean isHealthy() {
+        return missingRootPrimaryId == 0 && primariesNotOwnRoot == 0
+                && secondariesWithInvalidRoot == 0 && contactsWithDivergentRoot == 0;
+    }
+}
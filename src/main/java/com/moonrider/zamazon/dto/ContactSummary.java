@@ -0,0 +1,33 @@
+package com.moonrider.zamazon.dto;
+
+import com.moonrider.zamazon.entity.Contact;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// One contact as returned by the cluster read API. Selected straight into
+// this class by ContactRepository, so no Contact entity is hydrated or
+// tracked for it.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContactSummary {
+
+    private Long id;
+
+    private String email;
+
+    private String phoneNumber;
+
+    private Long linkedId;
+
+    private Long rootPrimaryId;
+
+    private Contact.LinkPrecedence linkPrecedence;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+}
@@ -1,9 +1,11 @@
 package com.moonrider.zamazon.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 
 import java.util.List;
@@ -24,4 +26,15 @@ public class IdentifyResponse {
     @JsonProperty("secondaryContactIds")
     private List<Long> secondaryContactIds;
 
+    // Version of the primary's row when the response was built; every change
+    // to the cluster bumps it. Sent as part of the ETag rather than in the
+    // body, and null where no version is known (identity graph, read API).
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private Long clusterVersion;
+
+    public IdentifyResponse(Long primaryContactId, List<String> emails, List<String> phoneNumbers,
+            List<Long> secondaryContactIds) {
+        this(primaryContactId, emails, phoneNumbers, secondaryContactIds, null);
+    }
 }
@@ -0,0 +1,36 @@
+package com.moonrider.zamazon.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdentityGraphReport {
+
+    private long contactsInGraph;
+
+    // Active contacts in the table
+    private long contactsInTable;
+
+    // Active contacts the graph does not know, e.g. written by another instance
+    private long missingFromGraph;
+
+    // Graph contacts that are not active in the table
+    private long missingFromTable;
+
+    // Contacts whose rootPrimaryId is not the root of their graph cluster
+    private long mismatchedRoots;
+
+    // Contacts that are PRIMARY in the table but not a graph root, or the reverse
+    private long mismatchedPrecedence;
+
+    // Writes the write-behind log gave up on since startup
+    private long failedWrites;
+
+    public boolean isConsistent() {
+        return contactsInGraph == contactsInTable && missingFromGraph == 0 && missingFromTable == 0
+                && mismatchedRoots == 0 && mismatchedPrecedence == 0;
+    }
+}
@@ -1,8 +1,10 @@
 package com.moonrider.zamazon.entity;
 
+import com.moonrider.zamazon.util.ContactNormalizer;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
 
 
@@ -11,22 +13,59 @@ import java.time.LocalDateTime;
 @Entity
 @Data
 @NoArgsConstructor
-@Table(name = "contacts")
+@Table(name = "contacts", indexes = {
+        // Each lookup filter leads its index and deleted_at follows, so the
+        // "deletedAt IS NULL" predicate is answered from the index as well.
+        // Emails and phone numbers are looked up through their fixed-width keys.
+        @Index(name = "idx_contacts_email_key", columnList = "email_key, deleted_at"),
+        @Index(name = "idx_contacts_phone_key", columnList = "phone_key, deleted_at"),
+        @Index(name = "idx_contacts_linked_id", columnList = "linked_id, deleted_at"),
+        @Index(name = "idx_contacts_root_primary_id", columnList = "root_primary_id, deleted_at")
+})
 public class Contact {
 
+    public static final String ID_SEQUENCE = "contacts_seq";
+
+    // Ids handed out per sequence value
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    // Width of the email and phone_number columns; requests are validated
+    // against it, since a longer value fails the INSERT
+    public static final int MAX_VALUE_LENGTH = 255;
+
+    // Ids come from a sequence in blocks of 50 (pooled-lo, see application.yml),
+    // so persist does not need an INSERT to learn the id and Hibernate can
+    // batch the inserts at flush time.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
-    @Column(name = "phone_number")
+    @Column(name = "phone_number", length = MAX_VALUE_LENGTH)
     private String phoneNumber;
 
-    @Column(name = "email")
+    @Column(name = "email", length = MAX_VALUE_LENGTH)
     private String email;
 
+    // Lookup keys of the normalized email and phone number (ContactNormalizer).
+    // The setters keep them in step with the raw values, which are stored as
+    // given and returned in responses.
+    @Column(name = "email_key")
+    private Long emailKey;
+
+    @Column(name = "phone_key")
+    private Long phoneKey;
+
     @Column(name = "linked_id")
     private Long linkedId;
 
+    // Denormalized id of the PRIMARY at the top of this contact's cluster, kept
+    // in step through merges so a whole cluster is one indexed equality lookup.
+    // linkedId alone may point at a secondary that was re-parented later.
+    // A new primary gets its own id from ContactRootInterceptor at persist.
+    @Column(name = "root_primary_id")
+    private Long rootPrimaryId;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "link_precedence")
     private LinkPrecedence linkPrecedence;
@@ -40,14 +79,35 @@ public class Contact {
     @Column(name = "deleted_at")
     private LocalDateTime deletedAt;
 
+    // Optimistic lock. Entity updates check it through Hibernate; the bulk
+    // merge statements in ContactRepository bump it and merges claim the
+    // versions they decided on first (ContactRepository.claimVersion), so a
+    // merge computed from a cluster that has changed since is rolled back and
+    // retried instead of overwriting the other writer. Rows inserted without
+    // it, e.g. by JDBC, start at the column default.
+    @Version
+    @ColumnDefault("0")
+    @Column(name = "version", nullable = false)
+    private long version;
+
     public Contact(String email, String phoneNumber, LinkPrecedence linkPrecedence) {
-        this.email = email;
-        this.phoneNumber = phoneNumber;
+        setEmail(email);
+        setPhoneNumber(phoneNumber);
         this.linkPrecedence = linkPrecedence;
         this.createdAt = LocalDateTime.now();
         this.updatedAt = LocalDateTime.now();
     }
 
+    public void setEmail(String email) {
+        this.email = email;
+        this.emailKey = ContactNormalizer.emailKey(email);
+    }
+
+    public void setPhoneNumber(String phoneNumber) {
+        this.phoneNumber = phoneNumber;
+        this.phoneKey = ContactNormalizer.phoneKey(phoneNumber);
+    }
+
     @PrePersist
     public void prePersist() {
         this.createdAt = LocalDateTime.now();
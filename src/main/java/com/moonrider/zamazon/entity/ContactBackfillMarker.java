@@ -0,0 +1,33 @@
+package com.moonrider.zamazon.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Records that a startup backfill has run to completion, so later starts can
+// skip it. The version is that of the rules the backfill applied; a marker
+// with an older one means the backfill has to run again.
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "contact_backfill_markers")
+public class ContactBackfillMarker {
+
+    @Id
+    @Column(name = "backfill_name")
+    private String backfillName;
+
+    @Column(name = "version")
+    private int version;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    public ContactBackfillMarker(String backfillName, int version, LocalDateTime completedAt) {
+        this.backfillName = backfillName;
+        this.version = version;
+        this.completedAt = completedAt;
+    }
+}
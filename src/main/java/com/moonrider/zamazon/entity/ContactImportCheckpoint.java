@@ -0,0 +1,51 @@
+package com.moonrider.zamazon.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Progress of a contact import, saved after every chunk so that running the
+// same import again continues after the last chunk it wrote.
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "contact_import_checkpoints")
+public class ContactImportCheckpoint {
+
+    @Id
+    @Column(name = "import_name")
+    private String importName;
+
+    // Size of the file the offsets refer to; another size means another file
+    @Column(name = "file_size")
+    private long fileSize;
+
+    // Offset of the first line that has not been imported yet
+    @Column(name = "byte_offset")
+    private long byteOffset;
+
+    @Column(name = "rows_read")
+    private long rowsRead;
+
+    @Column(name = "rows_imported")
+    private long rowsImported;
+
+    @Column(name = "rows_invalid")
+    private long rowsInvalid;
+
+    @Column(name = "rows_failed")
+    private long rowsFailed;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    public ContactImportCheckpoint(String importName, long fileSize) {
+        this.importName = importName;
+        this.fileSize = fileSize;
+    }
+}
@@ -0,0 +1,41 @@
+package com.moonrider.zamazon.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// A merge whose demoted primary is already a secondary of the root, but whose
+// cluster members still carry the demoted primary as their root. Written in
+// the transaction of the identify that decided the merge and deleted once
+// ContactMergeQueue has moved the members. Intents are applied in id order,
+// which is the order the merges were decided in.
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "contact_merge_intents", indexes = {
+        @Index(name = "idx_contact_merge_intents_root_id", columnList = "root_id")
+})
+public class ContactMergeIntent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // A primary is demoted once, so it has at most one pending merge
+    @Column(name = "demoted_id", nullable = false, unique = true)
+    private Long demotedId;
+
+    @Column(name = "root_id", nullable = false)
+    private Long rootId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public ContactMergeIntent(Long demotedId, Long rootId, LocalDateTime createdAt) {
+        this.demotedId = demotedId;
+        this.rootId = rootId;
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,31 @@
+package com.moonrider.zamazon.entity;
+
+import org.hibernate.Interceptor;
+import org.hibernate.type.Type;
+
+// Registered through hibernate.session_factory.interceptor; stamps a new
+// primary with its own id as rootPrimaryId when it is persisted. Hibernate
+// calls this once the id has been drawn from contacts_seq but before it takes
+// the state the INSERT is written from, so the root goes out with the INSERT.
+// Setting it on the entity after persist instead leaves a null root in the
+// INSERT and a dirty-check UPDATE, which also bumps the version, at flush.
+public class ContactRootInterceptor implements Interceptor {
+
+    private static final String ROOT_PROPERTY = "rootPrimaryId";
+
+    @Override
+    public boolean onSave(Object entity, Object id, Object[] state, String[] propertyNames, Type[] types) {
+        if (!(entity instanceof Contact contact) || contact.getRootPrimaryId() != null
+                || contact.getLinkPrecedence() != Contact.LinkPrecedence.PRIMARY) {
+            return false;
+        }
+        for (int i = 0; i < propertyNames.length; i++) {
+            if (ROOT_PROPERTY.equals(propertyNames[i])) {
+                state[i] = id;
+                contact.setRootPrimaryId((Long) id);
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.moonrider.zamazon.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// One row per lock stripe. identify takes a row lock on the stripes of its
+// email and phone, which serializes writers of the same identity across
+// every instance sharing the database while unrelated identities proceed.
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "identity_locks")
+public class IdentityLock {
+
+    @Id
+    @Column(name = "stripe")
+    private Integer stripe;
+
+    public IdentityLock(Integer stripe) {
+        this.stripe = stripe;
+    }
+}
@@ -0,0 +1,17 @@
+package com.moonrider.zamazon.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Set;
+
+// Published inside the identify transaction whenever a cluster gains a
+// contact or primaries are merged. Listeners that keep derived state (such
+// as the cluster cache) react once the transaction has committed.
+@Data
+@AllArgsConstructor
+public class ClusterChangedEvent {
+
+    // Every primary id whose cluster contents changed, including demoted ones
+    private Set<Long> primaryIds;
+}
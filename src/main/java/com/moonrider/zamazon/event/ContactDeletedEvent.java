@@ -0,0 +1,18 @@
+package com.moonrider.zamazon.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// Published inside the delete transaction along with a ClusterChangedEvent.
+// The email and phone number may no longer belong to the cluster, so anything
+// that maps them to it has to forget them once the transaction has committed.
+@Data
+@AllArgsConstructor
+public class ContactDeletedEvent {
+
+    private Long contactId;
+
+    private String email;
+
+    private String phoneNumber;
+}
@@ -0,0 +1,10 @@
+package com.moonrider.zamazon.exception;
+
+// Thrown when the identity graph turns an identify away because its
+// write-behind log is full or cannot reach the table; answered with 503
+public class IdentityGraphUnavailableException extends RuntimeException {
+
+    public IdentityGraphUnavailableException(String message) {
+        super(message);
+    }
+}
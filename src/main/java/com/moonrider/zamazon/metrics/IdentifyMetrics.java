@@ -0,0 +1,90 @@
+package com.moonrider.zamazon.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Meters for identify: a timer per ContactService phase, request timers by
+// path and outcome, and histograms of cluster size and queries per request.
+// Requests slower than contact.metrics.slow-request-threshold are logged with
+// their cluster size and query count.
+@Component
+public class IdentifyMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(IdentifyMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> phaseTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> requestTimers = new ConcurrentHashMap<>();
+    private final DistributionSummary clusterSizes;
+    private final DistributionSummary queriesPerRequest;
+    private final Counter slowRequests;
+
+    @Value("${contact.metrics.slow-request-threshold:250ms}")
+    private Duration slowRequestThreshold = Duration.ofMillis(250);
+
+    public IdentifyMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.clusterSizes = DistributionSummary.builder("identify.cluster.size")
+                .description("Contacts in the clusters loaded by identify")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.queriesPerRequest = DistributionSummary.builder("identify.queries")
+                .description("SQL statements prepared per identify request")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.slowRequests = Counter.builder("identify.slow.requests")
+                .description("Identify requests slower than the slow-request threshold")
+                .register(meterRegistry);
+    }
+
+    public <T> T phase(String phase, Supplier<T> work) {
+        return phaseTimer(phase).record(work);
+    }
+
+    public void phase(String phase, Runnable work) {
+        phaseTimer(phase).record(work);
+    }
+
+    public void recordClusterSize(int size) {
+        clusterSizes.record(size);
+        IdentifyTrace.recordClusterSize(size);
+    }
+
+    public void recordRequest(IdentifyTrace trace, String path, String outcome) {
+        long elapsedNanos = trace.elapsedNanos();
+        requestTimers.computeIfAbsent(path + ":" + outcome, key -> Timer.builder("identify.request")
+                .description("End-to-end identify latency")
+                .tag("path", path)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry))
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        queriesPerRequest.record(trace.getQueries());
+
+        if (elapsedNanos >= slowRequestThreshold.toNanos()) {
+            slowRequests.increment();
+            log.warn("Slow identify request: {}ms on the {} path ({}), cluster size {}, {} queries",
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), path, outcome, trace.getClusterSize(),
+                    trace.getQueries());
+        }
+    }
+
+    private Timer phaseTimer(String phase) {
+        return phaseTimers.computeIfAbsent(phase, key -> Timer.builder("identify.phase")
+                .description("Time spent in each phase of ContactService")
+                .tag("phase", phase)
+                .register(meterRegistry));
+    }
+}
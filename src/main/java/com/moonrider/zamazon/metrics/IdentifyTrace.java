@@ -0,0 +1,53 @@
+package com.moonrider.zamazon.metrics;
+
+// Per-request figures of one identify call, collected on the calling thread:
+// the statements Hibernate prepared and the size of the largest cluster
+// loaded. Started and finished by IdentifyCoordinator; recording outside a
+// trace is a no-op.
+public final class IdentifyTrace {
+
+    private static final ThreadLocal<IdentifyTrace> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private int queries;
+    private int clusterSize;
+
+    private IdentifyTrace() {
+    }
+
+    public static IdentifyTrace start() {
+        IdentifyTrace trace = new IdentifyTrace();
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    public static void recordQuery() {
+        IdentifyTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.queries++;
+        }
+    }
+
+    public static void recordClusterSize(int size) {
+        IdentifyTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.clusterSize = Math.max(trace.clusterSize, size);
+        }
+    }
+
+    public void finish() {
+        CURRENT.remove();
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    public int getQueries() {
+        return queries;
+    }
+
+    public int getClusterSize() {
+        return clusterSize;
+    }
+}
@@ -0,0 +1,14 @@
+package com.moonrider.zamazon.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+// Registered through hibernate.session_factory.statement_inspector; counts
+// every statement Hibernate prepares against the current identify request.
+public class QueryCountInspector implements StatementInspector {
+
+    @Override
+    public String inspect(String sql) {
+        IdentifyTrace.recordQuery();
+        return sql;
+    }
+}
@@ -0,0 +1,7 @@
+package com.moonrider.zamazon.repository;
+
+import com.moonrider.zamazon.entity.ContactBackfillMarker;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ContactBackfillMarkerRepository extends JpaRepository<ContactBackfillMarker, String> {
+}
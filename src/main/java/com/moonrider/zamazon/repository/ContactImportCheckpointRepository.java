@@ -0,0 +1,7 @@
+package com.moonrider.zamazon.repository;
+
+import com.moonrider.zamazon.entity.ContactImportCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ContactImportCheckpointRepository extends JpaRepository<ContactImportCheckpoint, String> {
+}
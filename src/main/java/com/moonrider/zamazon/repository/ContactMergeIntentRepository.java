@@ -0,0 +1,30 @@
+package com.moonrider.zamazon.repository;
+
+import com.moonrider.zamazon.entity.ContactMergeIntent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface ContactMergeIntentRepository extends JpaRepository<ContactMergeIntent, Long> {
+
+    // Pending merges into or out of the given cluster roots; repeated by
+    // ContactMergeQueue until it has every merge connected to them
+    @Query("SELECT i FROM ContactMergeIntent i WHERE i.demotedId IN :ids OR i.rootId IN :ids")
+    List<ContactMergeIntent> findTouching(@Param("ids") Collection<Long> ids);
+
+    // The next merges to apply, oldest first
+    List<ContactMergeIntent> findTop100ByOrderByIdAsc();
+
+    @Query("SELECT MIN(i.createdAt) FROM ContactMergeIntent i")
+    LocalDateTime findOldestCreatedAt();
+
+    // Pending merges into a deleted primary go to its successor instead
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE ContactMergeIntent i SET i.rootId = :successorId WHERE i.rootId = :rootId")
+    int retargetRoot(@Param("rootId") Long rootId, @Param("successorId") Long successorId);
+}
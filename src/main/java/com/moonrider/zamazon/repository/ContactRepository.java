@@ -1,13 +1,22 @@
 package com.moonrider.zamazon.repository;
 
+import com.moonrider.zamazon.dto.ContactSummary;
 import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 public interface ContactRepository extends JpaRepository<Contact, Long> {
 
@@ -16,9 +25,74 @@ public interface ContactRepository extends JpaRepository<Contact, Long> {
 
 
     // Finds all active (not soft-deleted) contacts that match either the given
-    // email or phone number.
-    @Query("SELECT c FROM Contact c WHERE c.deletedAt IS NULL AND (c.email = :email OR c.phoneNumber = :phoneNumber)")
-    List<Contact> findByEmailOrPhoneNumber(@Param("email") String email, @Param("phoneNumber") String phoneNumber);
+    // email or phone number once both are normalized (see ContactNormalizer).
+    // Rows are found by key and kept only if their value matches as well.
+    default List<Contact> findByEmailOrPhoneNumber(String email, String phoneNumber) {
+        String normalizedEmail = ContactNormalizer.normalizeEmail(email);
+        String normalizedPhoneNumber = ContactNormalizer.normalizePhoneNumber(phoneNumber);
+        List<Contact> candidates = findByEmailKeyOrPhoneKey(ContactNormalizer.emailKey(email),
+                ContactNormalizer.phoneKey(phoneNumber));
+        candidates.removeIf(c -> !ContactNormalizer.sameEmail(normalizedEmail, c.getEmail())
+                && !ContactNormalizer.samePhoneNumber(normalizedPhoneNumber, c.getPhoneNumber()));
+        return candidates;
+    }
+
+    // Written as a UNION rather than "emailKey = :emailKey OR phoneKey = :phoneKey"
+    // so each branch can seek its own index; most planners fall back to a full
+    // scan for an OR across two columns.
+    @Query("SELECT c FROM Contact c WHERE c.deletedAt IS NULL AND c.emailKey = :emailKey "
+            + "UNION SELECT c FROM Contact c WHERE c.deletedAt IS NULL AND c.phoneKey = :phoneKey")
+    List<Contact> findByEmailKeyOrPhoneKey(@Param("emailKey") Long emailKey, @Param("phoneKey") Long phoneKey);
+
+    // Set-based variants of the lookup above for batch identify: one indexed
+    // query per column for a whole chunk of requests.
+    default List<Contact> findByEmailIn(Collection<String> emails) {
+        Set<String> normalized = valuesOf(emails, ContactNormalizer::normalizeEmail);
+        List<Contact> candidates = findByEmailKeyIn(keysOf(emails, ContactNormalizer::emailKey));
+        candidates.removeIf(c -> !normalized.contains(ContactNormalizer.normalizeEmail(c.getEmail())));
+        return candidates;
+    }
+
+    default List<Contact> findByPhoneNumberIn(Collection<String> phoneNumbers) {
+        Set<String> normalized = valuesOf(phoneNumbers, ContactNormalizer::normalizePhoneNumber);
+        List<Contact> candidates = findByPhoneKeyIn(keysOf(phoneNumbers, ContactNormalizer::phoneKey));
+        candidates.removeIf(c -> !normalized.contains(ContactNormalizer.normalizePhoneNumber(c.getPhoneNumber())));
+        return candidates;
+    }
+
+    @Query("SELECT c FROM Contact c WHERE c.deletedAt IS NULL AND c.emailKey IN :emailKeys")
+    List<Contact> findByEmailKeyIn(@Param("emailKeys") Collection<Long> emailKeys);
+
+    @Query("SELECT c FROM Contact c WHERE c.deletedAt IS NULL AND c.phoneKey IN :phoneKeys")
+    List<Contact> findByPhoneKeyIn(@Param("phoneKeys") Collection<Long> phoneKeys);
+
+    private static Set<Long> keysOf(Collection<String> values, Function<String, Long> key) {
+        Set<Long> keys = new HashSet<>();
+        for (String value : values) {
+            Long k = key.apply(value);
+            if (k != null) {
+                keys.add(k);
+            }
+        }
+        return keys;
+    }
+
+    private static Set<String> valuesOf(Collection<String> values, Function<String, String> normalize) {
+        Set<String> normalized = new HashSet<>();
+        for (String value : values) {
+            String n = normalize.apply(value);
+            if (n != null) {
+                normalized.add(n);
+            }
+        }
+        return normalized;
+    }
+
+    // Version of an active primary, which every change to its cluster bumps;
+    // one primary key lookup for conditional identify requests
+    @Query("SELECT c.version FROM Contact c WHERE c.id = :id AND c.deletedAt IS NULL "
+            + "AND c.linkPrecedence = 'PRIMARY'")
+    Optional<Long> findPrimaryVersion(@Param("id") Long id);
 
     // Finds all active contacts whose linkedId matches the provided ID.
     // This returns all "secondary" records that are part of the same cluster.
@@ -41,4 +115,169 @@ public interface ContactRepository extends JpaRepository<Contact, Long> {
      */
     @Query("SELECT c FROM Contact c WHERE c.deletedAt IS NULL AND c.linkPrecedence = 'PRIMARY' AND (c.linkedId = :linkedId OR c.id = :linkedId)")
     Optional<Contact> findPrimaryByLinkedId(@Param("linkedId") Long linkedId);
-} 
\ No newline at end of file
+
+    // Resolves the cluster roots of the given contacts in a single round trip by
+    // walking each one up its linkedId chain. A root is the first contact whose
+    // parent is missing or soft-deleted.
+    @Query(value = """
+            WITH RECURSIVE ancestors(id, linked_id) AS (
+                SELECT c.id, c.linked_id FROM contacts c
+                WHERE c.deleted_at IS NULL AND c.id IN (:ids)
+                UNION
+                SELECT p.id, p.linked_id FROM contacts p
+                JOIN ancestors a ON p.id = a.linked_id
+                WHERE p.deleted_at IS NULL
+            )
+            SELECT DISTINCT a.id FROM ancestors a
+            WHERE NOT EXISTS (SELECT 1 FROM contacts p WHERE p.id = a.linked_id AND p.deleted_at IS NULL)
+            """, nativeQuery = true)
+    List<Long> findRootIds(@Param("ids") Collection<Long> ids);
+
+    // Loads every active contact below the given roots in a single round trip,
+    // so chains of any depth (e.g. secondaries re-parented under a demoted
+    // primary) come back together with their primary.
+    @Query(value = """
+            WITH RECURSIVE members(id) AS (
+                SELECT c.id FROM contacts c
+                WHERE c.deleted_at IS NULL AND c.id IN (:rootIds)
+                UNION
+                SELECT c.id FROM contacts c
+                JOIN members m ON c.linked_id = m.id
+                WHERE c.deleted_at IS NULL
+            )
+            SELECT c.* FROM members m JOIN contacts c ON c.id = m.id
+            """, nativeQuery = true)
+    List<Contact> findClusterByRootIds(@Param("rootIds") Collection<Long> rootIds);
+
+    // Loads every active contact of the given clusters through the denormalized
+    // root column; this is the normal cluster read path.
+    @Query("SELECT c FROM Contact c WHERE c.deletedAt IS NULL AND c.rootPrimaryId IN :rootIds")
+    List<Contact> findByRootPrimaryIdIn(@Param("rootIds") Collection<Long> rootIds);
+
+    // Read API. Rows are selected into ContactSummary instead of entities, so
+    // they skip the persistence context, and pages are found by keyset on the
+    // primary key, so a deep page costs what the first one does.
+
+    @Query("SELECT new com.moonrider.zamazon.dto.ContactSummary(c.id, c.email, c.phoneNumber, c.linkedId, "
+            + "c.rootPrimaryId, c.linkPrecedence, c.createdAt, c.updatedAt) FROM Contact c "
+            + "WHERE c.deletedAt IS NULL AND c.rootPrimaryId IN :rootIds ORDER BY c.id")
+    List<ContactSummary> findSummariesByRootPrimaryIdIn(@Param("rootIds") Collection<Long> rootIds);
+
+    // Active primaries with an id above the given one, in id order
+    @Query("SELECT c.id FROM Contact c WHERE c.deletedAt IS NULL AND c.linkPrecedence = 'PRIMARY' "
+            + "AND c.id > :after ORDER BY c.id")
+    List<Long> findPrimaryIdsAfter(@Param("after") long after, Limit limit);
+
+    // Merge statements. They run as bulk UPDATEs so a merge costs the same
+    // number of round trips whatever the size of the demoted clusters. Pending
+    // changes are flushed first and the persistence context is cleared after,
+    // so no managed entity is left holding pre-merge state.
+
+    // Bumps the version of an active contact if it is still the one the caller
+    // read, and returns 0 otherwise. A merge claims its surviving root and
+    // every primary it demotes this way before the statements below, which
+    // then cannot lose to a concurrent merge of the same clusters.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.version = c.version + 1 WHERE c.id = :id AND c.version = :version "
+            + "AND c.deletedAt IS NULL")
+    int claimVersion(@Param("id") Long id, @Param("version") long version);
+
+    // Bumps the versions of cluster roots that writers without a claim (the
+    // identity graph's write-behind log) have added contacts to or merged into
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.version = c.version + 1 WHERE c.id IN :ids")
+    int bumpVersions(@Param("ids") Collection<Long> ids);
+
+    // Turns the given primaries into secondaries of the surviving root.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.linkPrecedence = 'SECONDARY', c.linkedId = :rootId, "
+            + "c.rootPrimaryId = :rootId, c.updatedAt = :now, c.version = c.version + 1 "
+            + "WHERE c.id IN :demotedIds")
+    int demotePrimaries(@Param("rootId") Long rootId, @Param("demotedIds") Collection<Long> demotedIds,
+            @Param("now") LocalDateTime now);
+
+    // Moves every contact of the demoted clusters under the surviving root;
+    // direct children of a demoted primary are re-linked to the root as well.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.rootPrimaryId = :rootId, c.updatedAt = :now, c.version = c.version + 1, "
+            + "c.linkedId = CASE WHEN c.linkedId IN :demotedIds THEN :rootId ELSE c.linkedId END "
+            + "WHERE c.rootPrimaryId IN :demotedIds OR c.linkedId IN :demotedIds")
+    int reparentClusters(@Param("rootId") Long rootId, @Param("demotedIds") Collection<Long> demotedIds,
+            @Param("now") LocalDateTime now);
+
+    // Stamps the root on specific contacts, used for rows that predate rootPrimaryId.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.rootPrimaryId = :rootId, c.version = c.version + 1 WHERE c.id IN :ids")
+    int assignRootPrimaryId(@Param("rootId") Long rootId, @Param("ids") Collection<Long> ids);
+
+    // Deletion statements (ContactService.deleteContact), run after the
+    // deleted contact and its root have been claimed.
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.deletedAt = :now, c.updatedAt = :now, c.version = c.version + 1 "
+            + "WHERE c.id = :id AND c.deletedAt IS NULL")
+    int softDelete(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    // Re-links the direct children of a deleted secondary to the cluster root
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.linkedId = :rootId, c.updatedAt = :now, c.version = c.version + 1 "
+            + "WHERE c.linkedId = :deletedId AND c.deletedAt IS NULL")
+    int relinkChildren(@Param("deletedId") Long deletedId, @Param("rootId") Long rootId,
+            @Param("now") LocalDateTime now);
+
+    // Makes a member of the cluster of a deleted primary the new root
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.linkPrecedence = 'PRIMARY', c.linkedId = NULL, c.rootPrimaryId = c.id, "
+            + "c.updatedAt = :now, c.version = c.version + 1 WHERE c.id = :id")
+    int promoteToPrimary(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    // Moves the given members under the new root; children of the deleted
+    // primary are re-linked to it as well
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.rootPrimaryId = :rootId, c.updatedAt = :now, c.version = c.version + 1, "
+            + "c.linkedId = CASE WHEN c.linkedId = :deletedId THEN :rootId ELSE c.linkedId END "
+            + "WHERE c.id IN :ids")
+    int rerootMembers(@Param("rootId") Long rootId, @Param("deletedId") Long deletedId,
+            @Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    // Backfill: a contact without a parent is the root of its own cluster.
+    // Works through one id range at a time to keep each transaction short.
+    @Modifying
+    @Query("UPDATE Contact c SET c.rootPrimaryId = c.id WHERE c.rootPrimaryId IS NULL AND c.linkedId IS NULL "
+            + "AND c.id BETWEEN :fromId AND :toId")
+    int backfillRootsOfUnlinked(@Param("fromId") Long fromId, @Param("toId") Long toId);
+
+    // Backfill: copies the root down one level from parents that already have
+    // one. Repeating it until nothing changes resolves chains of any depth.
+    @Modifying
+    @Query("UPDATE Contact c SET c.rootPrimaryId = "
+            + "(SELECT p.rootPrimaryId FROM Contact p WHERE p.id = c.linkedId) "
+            + "WHERE c.rootPrimaryId IS NULL AND c.linkedId IS NOT NULL AND c.id BETWEEN :fromId AND :toId "
+            + "AND EXISTS (SELECT p.id FROM Contact p WHERE p.id = c.linkedId AND p.rootPrimaryId IS NOT NULL)")
+    int backfillRootsFromParents(@Param("fromId") Long fromId, @Param("toId") Long toId);
+
+    @Query("SELECT COALESCE(MAX(c.id), 0) FROM Contact c")
+    long findMaxId();
+
+    // Invariant checks on rootPrimaryId, safe to run against a live table.
+    // Members of a cluster with a pending asynchronous merge still carry the
+    // demoted primary as their root and are left out until it is applied.
+
+    @Query("SELECT COUNT(c) FROM Contact c WHERE c.deletedAt IS NULL AND c.rootPrimaryId IS NULL")
+    long countMissingRootPrimaryId();
+
+    @Query("SELECT COUNT(c) FROM Contact c WHERE c.deletedAt IS NULL AND c.linkPrecedence = 'PRIMARY' "
+            + "AND c.rootPrimaryId <> c.id")
+    long countPrimariesNotOwnRoot();
+
+    @Query("SELECT COUNT(c) FROM Contact c WHERE c.deletedAt IS NULL AND c.linkPrecedence = 'SECONDARY' "
+            + "AND NOT EXISTS (SELECT p.id FROM Contact p WHERE p.id = c.rootPrimaryId "
+            + "AND p.deletedAt IS NULL AND p.linkPrecedence = 'PRIMARY') "
+            + "AND NOT EXISTS (SELECT i.id FROM ContactMergeIntent i WHERE i.demotedId = c.rootPrimaryId)")
+    long countSecondariesWithInvalidRoot();
+
+    @Query("SELECT COUNT(c) FROM Contact c, Contact p WHERE p.id = c.linkedId AND c.deletedAt IS NULL "
+            + "AND p.deletedAt IS NULL AND p.rootPrimaryId <> c.rootPrimaryId "
+            + "AND NOT EXISTS (SELECT i.id FROM ContactMergeIntent i WHERE i.demotedId = c.rootPrimaryId)")
+    long countContactsWithDivergentRoot();
+}
@@ -0,0 +1,23 @@
+package com.moonrider.zamazon.repository;
+
+import com.moonrider.zamazon.entity.IdentityLock;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface IdentityLockRepository extends JpaRepository<IdentityLock, Integer> {
+
+    // SELECT ... FOR UPDATE on the given stripes, held until the surrounding
+    // transaction ends. Rows are locked in stripe order to avoid deadlocks.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT l FROM IdentityLock l WHERE l.stripe IN :stripes ORDER BY l.stripe")
+    List<IdentityLock> lockStripes(@Param("stripes") Collection<Integer> stripes);
+
+    @Query("SELECT COUNT(l) FROM IdentityLock l")
+    long countStripes();
+}
@@ -0,0 +1,245 @@
+package com.moonrider.zamazon.repository;
+
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import io.r2dbc.spi.Readable;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// R2DBC counterpart of the ContactRepository and IdentityLockRepository
+// queries used by identify, for the reactive profile. Statements are the SQL
+// the JPA queries translate to, so both stacks read and write the same rows
+// the same way and can serve the same database side by side.
+@Repository
+@Profile("reactive")
+public class ReactiveContactRepository {
+
+    private static final String COLUMNS = "id, email, phone_number, email_key, phone_key, linked_id, "
+            + "root_primary_id, link_precedence, created_at, updated_at, deleted_at, version";
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    // The dialect's sequence call, e.g. nextval('contacts_seq') on PostgreSQL
+    private String nextValueSql;
+
+    @PostConstruct
+    void initialize() {
+        nextValueSql = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect()
+                .getSequenceSupport().getSequenceNextValString(Contact.ID_SEQUENCE);
+    }
+
+    // See ContactRepository.findByEmailOrPhoneNumber for the normalized keys,
+    // the UNION and the check of the matched values; a value without a key
+    // matches nothing, so its branch is left out
+    public Flux<Contact> findByEmailOrPhoneNumber(String email, String phoneNumber) {
+        String normalizedEmail = ContactNormalizer.normalizeEmail(email);
+        String normalizedPhoneNumber = ContactNormalizer.normalizePhoneNumber(phoneNumber);
+        Long emailKey = ContactNormalizer.emailKey(email);
+        Long phoneKey = ContactNormalizer.phoneKey(phoneNumber);
+        List<String> branches = new ArrayList<>(2);
+        if (emailKey != null) {
+            branches.add("SELECT " + COLUMNS + " FROM contacts WHERE deleted_at IS NULL AND email_key = :emailKey");
+        }
+        if (phoneKey != null) {
+            branches.add("SELECT " + COLUMNS + " FROM contacts WHERE deleted_at IS NULL AND phone_key = :phoneKey");
+        }
+        if (branches.isEmpty()) {
+            return Flux.empty();
+        }
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(String.join(" UNION ", branches));
+        if (emailKey != null) {
+            spec = spec.bind("emailKey", emailKey);
+        }
+        if (phoneKey != null) {
+            spec = spec.bind("phoneKey", phoneKey);
+        }
+        return spec.map(ReactiveContactRepository::toContact).all()
+                .filter(c -> ContactNormalizer.sameEmail(normalizedEmail, c.getEmail())
+                        || ContactNormalizer.samePhoneNumber(normalizedPhoneNumber, c.getPhoneNumber()));
+    }
+
+    public Flux<Contact> findByRootPrimaryIdIn(Collection<Long> rootIds) {
+        return databaseClient.sql("SELECT " + COLUMNS + " FROM contacts "
+                + "WHERE deleted_at IS NULL AND root_primary_id IN (:rootIds)")
+                .bind("rootIds", rootIds)
+                .map(ReactiveContactRepository::toContact)
+                .all();
+    }
+
+    public Flux<Long> findRootIds(Collection<Long> ids) {
+        return databaseClient.sql("""
+                WITH RECURSIVE ancestors(id, linked_id) AS (
+                    SELECT c.id, c.linked_id FROM contacts c
+                    WHERE c.deleted_at IS NULL AND c.id IN (:ids)
+                    UNION
+                    SELECT p.id, p.linked_id FROM contacts p
+                    JOIN ancestors a ON p.id = a.linked_id
+                    WHERE p.deleted_at IS NULL
+                )
+                SELECT DISTINCT a.id FROM ancestors a
+                WHERE NOT EXISTS (SELECT 1 FROM contacts p WHERE p.id = a.linked_id AND p.deleted_at IS NULL)
+                """)
+                .bind("ids", ids)
+                .map(row -> row.get("id", Long.class))
+                .all();
+    }
+
+    public Flux<Contact> findClusterByRootIds(Collection<Long> rootIds) {
+        return databaseClient.sql("""
+                WITH RECURSIVE members(id) AS (
+                    SELECT c.id FROM contacts c
+                    WHERE c.deleted_at IS NULL AND c.id IN (:rootIds)
+                    UNION
+                    SELECT c.id FROM contacts c
+                    JOIN members m ON c.linked_id = m.id
+                    WHERE c.deleted_at IS NULL
+                )
+                SELECT c.* FROM members m JOIN contacts c ON c.id = m.id
+                """)
+                .bind("rootIds", rootIds)
+                .map(ReactiveContactRepository::toContact)
+                .all();
+    }
+
+    // Pending asynchronous merges (ContactMergeIntentRepository.findTouching)
+    // whose demoted primary or root is one of ids, as demoted id -> root id
+    public Flux<Map.Entry<Long, Long>> findMergeIntentsTouching(Collection<Long> ids) {
+        return databaseClient.sql("SELECT demoted_id, root_id FROM contact_merge_intents "
+                + "WHERE demoted_id IN (:ids) OR root_id IN (:ids)")
+                .bind("ids", ids)
+                .map(row -> Map.entry(row.get("demoted_id", Long.class), row.get("root_id", Long.class)))
+                .all();
+    }
+
+    // SELECT ... FOR UPDATE on the identity_locks stripes, in stripe order,
+    // held until the surrounding transaction ends
+    public Mono<Void> lockStripes(Collection<Integer> stripes) {
+        return databaseClient.sql("SELECT stripe FROM identity_locks WHERE stripe IN (:stripes) "
+                + "ORDER BY stripe FOR UPDATE")
+                .bind("stripes", stripes)
+                .map(row -> row.get("stripe", Integer.class))
+                .all()
+                .then();
+    }
+
+    // One value of contacts_seq per contact. Hibernate uses each value as the
+    // low end of a block of 50 (pooled-lo), so ids taken here never collide
+    // with the JPA path; the rest of the block is left unused.
+    public Mono<Long> nextId() {
+        return databaseClient.sql(nextValueSql)
+                .map(row -> row.get(0, Long.class))
+                .one();
+    }
+
+    // Inserts a contact whose id (and root) the caller has already assigned
+    public Mono<Contact> insert(Contact contact) {
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql("INSERT INTO contacts (id, email, "
+                + "phone_number, email_key, phone_key, linked_id, root_primary_id, link_precedence, created_at, "
+                + "updated_at) VALUES (:id, :email, :phoneNumber, :emailKey, :phoneKey, :linkedId, :rootPrimaryId, "
+                + ":linkPrecedence, :createdAt, :updatedAt)")
+                .bind("id", contact.getId())
+                .bind("linkPrecedence", contact.getLinkPrecedence().name())
+                .bind("createdAt", contact.getCreatedAt())
+                .bind("updatedAt", contact.getUpdatedAt());
+        spec = bindNullable(spec, "email", contact.getEmail(), String.class);
+        spec = bindNullable(spec, "phoneNumber", contact.getPhoneNumber(), String.class);
+        spec = bindNullable(spec, "emailKey", contact.getEmailKey(), Long.class);
+        spec = bindNullable(spec, "phoneKey", contact.getPhoneKey(), Long.class);
+        spec = bindNullable(spec, "linkedId", contact.getLinkedId(), Long.class);
+        spec = bindNullable(spec, "rootPrimaryId", contact.getRootPrimaryId(), Long.class);
+        return spec.then().thenReturn(contact);
+    }
+
+    // Merge statements, as in ContactRepository
+
+    public Mono<Long> demotePrimaries(Long rootId, Collection<Long> demotedIds, LocalDateTime now) {
+        return databaseClient.sql("UPDATE contacts SET link_precedence = 'SECONDARY', linked_id = :rootId, "
+                + "root_primary_id = :rootId, updated_at = :now, version = version + 1 WHERE id IN (:demotedIds)")
+                .bind("rootId", rootId)
+                .bind("now", now)
+                .bind("demotedIds", demotedIds)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    public Mono<Long> reparentClusters(Long rootId, Collection<Long> demotedIds, LocalDateTime now) {
+        return databaseClient.sql("UPDATE contacts SET root_primary_id = :rootId, updated_at = :now, version = version + 1, "
+                + "linked_id = CASE WHEN linked_id IN (:demotedIds) THEN :rootId ELSE linked_id END "
+                + "WHERE root_primary_id IN (:demotedIds) OR linked_id IN (:demotedIds)")
+                .bind("rootId", rootId)
+                .bind("now", now)
+                .bind("demotedIds", demotedIds)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    // See ContactRepository.findPrimaryVersion: empty unless id is an active primary
+    public Mono<Long> findPrimaryVersion(Long id) {
+        return databaseClient.sql("SELECT version FROM contacts "
+                + "WHERE id = :id AND deleted_at IS NULL AND link_precedence = 'PRIMARY'")
+                .bind("id", id)
+                .map(row -> row.get("version", Long.class))
+                .one();
+    }
+
+    // See ContactRepository.claimVersion: 0 rows when the contact has changed
+    // or been deleted since its version was read
+    public Mono<Long> claimVersion(Long id, long version) {
+        return databaseClient.sql("UPDATE contacts SET version = version + 1 "
+                + "WHERE id = :id AND version = :version AND deleted_at IS NULL")
+                .bind("id", id)
+                .bind("version", version)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    public Mono<Long> assignRootPrimaryId(Long rootId, Collection<Long> ids) {
+        return databaseClient.sql("UPDATE contacts SET root_primary_id = :rootId, version = version + 1 WHERE id IN (:ids)")
+                .bind("rootId", rootId)
+                .bind("ids", ids)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private static <T> DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec,
+            String name, T value, Class<T> type) {
+        return value != null ? spec.bind(name, value) : spec.bindNull(name, type);
+    }
+
+    private static Contact toContact(Readable row) {
+        Contact contact = new Contact();
+        contact.setId(row.get("id", Long.class));
+        contact.setEmail(row.get("email", String.class));
+        contact.setPhoneNumber(row.get("phone_number", String.class));
+        // The stored keys, as JPA reads them, rather than the ones the setters derive
+        contact.setEmailKey(row.get("email_key", Long.class));
+        contact.setPhoneKey(row.get("phone_key", Long.class));
+        contact.setLinkedId(row.get("linked_id", Long.class));
+        contact.setRootPrimaryId(row.get("root_primary_id", Long.class));
+        String linkPrecedence = row.get("link_precedence", String.class);
+        contact.setLinkPrecedence(linkPrecedence != null ? Contact.LinkPrecedence.valueOf(linkPrecedence) : null);
+        contact.setCreatedAt(row.get("created_at", LocalDateTime.class));
+        contact.setUpdatedAt(row.get("updated_at", LocalDateTime.class));
+        contact.setDeletedAt(row.get("deleted_at", LocalDateTime.class));
+        contact.setVersion(row.get("version", Long.class));
+        return contact;
+    }
+}
@@ -0,0 +1,201 @@
+package com.moonrider.zamazon.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moonrider.zamazon.dto.BatchIdentifyResult;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.exception.IdentityGraphUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Bulk identify for reconciliation jobs. Requests are read in chunks of
+// contact.batch.chunk-size. The valid items of a chunk are split, in order,
+// into groups that lock at most contact.batch.max-stripes stripes, and each
+// group is resolved in a single transaction through
+// ContactService.identifyChunk, with the same per-item outcome as sequential
+// identify calls. Invalid items are reported without touching the database;
+// if a group fails it is rolled back and its items are retried one by one, so
+// one bad item never fails the rest of the batch. With the identity graph
+// enabled every item goes through it instead, since it must see every write.
+@Service
+public class BatchIdentifyService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchIdentifyService.class);
+
+    static final String INVALID_REQUEST = "Invalid request parameters";
+    static final String UNAVAILABLE = "Service temporarily unavailable";
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private IdentifyCoordinator identifyCoordinator;
+
+    @Autowired
+    private IdentityLockManager identityLockManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired(required = false)
+    private IdentityGraph identityGraph;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${contact.batch.chunk-size:200}")
+    private int chunkSize = 200;
+
+    // Every stripe of a group is held, in process and in identity_locks, for
+    // its whole transaction. A single identify whose stripe is among them
+    // waits for the group, so larger groups save round trips at the cost of
+    // blocking more single identifies on every instance.
+    @Value("${contact.batch.max-stripes:32}")
+    private int maxStripes = 32;
+
+    private Counter batchItems;
+    private Counter chunkFallbacks;
+
+    @PostConstruct
+    void registerMetrics() {
+        batchItems = Counter.builder("identify.requests")
+                .description("Identify requests by the path that answered them")
+                .tag("path", "batch")
+                .register(meterRegistry);
+        chunkFallbacks = Counter.builder("identify.batch.chunk.fallbacks")
+                .description("Batch groups that failed and were retried item by item")
+                .register(meterRegistry);
+    }
+
+    public List<BatchIdentifyResult> identifyAll(List<IdentifyRequest> requests) {
+        List<BatchIdentifyResult> results = new ArrayList<>(requests.size());
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            int to = Math.min(from + chunkSize, requests.size());
+            results.addAll(identifyChunk(requests.subList(from, to), from));
+        }
+        return results;
+    }
+
+    // NDJSON variant: one request per input line, one result per output line.
+    // Only a single chunk is held in memory; results are flushed per chunk.
+    public void identifyStream(InputStream input, OutputStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+
+        List<IdentifyRequest> chunk = new ArrayList<>(chunkSize);
+        int firstIndex = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            // An unparsable line stays in the chunk as null and is reported as invalid
+            chunk.add(parse(line));
+            if (chunk.size() == chunkSize) {
+                writeResults(identifyChunk(chunk, firstIndex), writer);
+                firstIndex += chunk.size();
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeResults(identifyChunk(chunk, firstIndex), writer);
+        }
+        writer.flush();
+    }
+
+    private List<BatchIdentifyResult> identifyChunk(List<IdentifyRequest> chunk, int firstIndex) {
+        BatchIdentifyResult[] results = new BatchIdentifyResult[chunk.size()];
+        List<Integer> positions = new ArrayList<>();
+        List<IdentifyRequest> group = new ArrayList<>();
+        Set<Integer> stripes = new TreeSet<>();
+
+        for (int i = 0; i < chunk.size(); i++) {
+            IdentifyRequest request = chunk.get(i);
+            if (!ContactService.isValid(request)) {
+                results[i] = BatchIdentifyResult.failure(firstIndex + i, 400, INVALID_REQUEST);
+            } else if (identityGraph != null) {
+                results[i] = identifyOne(request, firstIndex + i);
+            } else {
+                List<Integer> requestStripes = identityLockManager.stripesFor(request.getEmail(),
+                        request.getPhoneNumber());
+                Set<Integer> grown = new TreeSet<>(stripes);
+                grown.addAll(requestStripes);
+                if (grown.size() > maxStripes && !group.isEmpty()) {
+                    identifyGroup(group, positions, stripes, results, firstIndex);
+                    group.clear();
+                    positions.clear();
+                    grown = new TreeSet<>(requestStripes);
+                }
+                group.add(request);
+                positions.add(i);
+                stripes = grown;
+            }
+        }
+        if (!group.isEmpty()) {
+            identifyGroup(group, positions, stripes, results, firstIndex);
+        }
+
+        batchItems.increment(chunk.size());
+        return Arrays.asList(results);
+    }
+
+    // Resolves a group of valid items in one transaction, holding its stripes
+    private void identifyGroup(List<IdentifyRequest> group, List<Integer> positions, Set<Integer> stripes,
+            BatchIdentifyResult[] results, int firstIndex) {
+        try {
+            List<IdentifyResponse> responses = identityLockManager.withStripes(new ArrayList<>(stripes),
+                    () -> contactService.identifyChunk(group));
+            for (int k = 0; k < responses.size(); k++) {
+                results[positions.get(k)] = BatchIdentifyResult.success(firstIndex + positions.get(k),
+                        responses.get(k));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Batch group starting at item {} failed, retrying its {} items one by one",
+                    firstIndex + positions.get(0), group.size(), e);
+            chunkFallbacks.increment();
+            for (int k = 0; k < group.size(); k++) {
+                results[positions.get(k)] = identifyOne(group.get(k), firstIndex + positions.get(k));
+            }
+        }
+    }
+
+    private BatchIdentifyResult identifyOne(IdentifyRequest request, int index) {
+        try {
+            return BatchIdentifyResult.success(index, identifyCoordinator.identify(request));
+        } catch (IllegalArgumentException e) {
+            return BatchIdentifyResult.failure(index, 400, INVALID_REQUEST);
+        } catch (IdentityGraphUnavailableException e) {
+            return BatchIdentifyResult.failure(index, 503, UNAVAILABLE);
+        } catch (RuntimeException e) {
+            log.error("Batch item {} failed", index, e);
+            return BatchIdentifyResult.failure(index, 500, UNAVAILABLE);
+        }
+    }
+
+    private IdentifyRequest parse(String line) {
+        try {
+            return objectMapper.readValue(line, IdentifyRequest.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private void writeResults(List<BatchIdentifyResult> results, Writer writer) throws IOException {
+        for (BatchIdentifyResult result : results) {
+            writer.write(objectMapper.writeValueAsString(result));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,73 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyResponse;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Collects a cluster's emails, phone numbers and secondary ids in one pass
+// over its members, into plain arrays that are sorted and deduplicated in
+// place when the response is built. Secondary ids stay primitive until the
+// final list, so a cluster costs a handful of arrays rather than a HashSet
+// and a sort buffer per field.
+final class ClusterResponseBuilder {
+
+    private String[] emails;
+    private int emailCount;
+
+    private String[] phoneNumbers;
+    private int phoneNumberCount;
+
+    private long[] secondaryIds;
+    private int secondaryCount;
+
+    ClusterResponseBuilder(int expectedSize) {
+        int capacity = Math.max(expectedSize, 1);
+        emails = new String[capacity];
+        phoneNumbers = new String[capacity];
+        secondaryIds = new long[capacity];
+    }
+
+    void add(String email, String phoneNumber, boolean secondary, long id) {
+        if (email != null) {
+            if (emailCount == emails.length) {
+                emails = Arrays.copyOf(emails, emailCount * 2);
+            }
+            emails[emailCount++] = email;
+        }
+        if (phoneNumber != null) {
+            if (phoneNumberCount == phoneNumbers.length) {
+                phoneNumbers = Arrays.copyOf(phoneNumbers, phoneNumberCount * 2);
+            }
+            phoneNumbers[phoneNumberCount++] = phoneNumber;
+        }
+        if (secondary) {
+            if (secondaryCount == secondaryIds.length) {
+                secondaryIds = Arrays.copyOf(secondaryIds, secondaryCount * 2);
+            }
+            secondaryIds[secondaryCount++] = id;
+        }
+    }
+
+    IdentifyResponse build(long primaryContactId) {
+        Arrays.sort(secondaryIds, 0, secondaryCount);
+        Long[] boxedIds = new Long[secondaryCount];
+        for (int i = 0; i < secondaryCount; i++) {
+            boxedIds[i] = secondaryIds[i];
+        }
+
+        return new IdentifyResponse(primaryContactId, sortedDistinct(emails, emailCount),
+                sortedDistinct(phoneNumbers, phoneNumberCount), Arrays.asList(boxedIds));
+    }
+
+    private static List<String> sortedDistinct(String[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || !values[i].equals(values[distinct - 1])) {
+                values[distinct++] = values[i];
+            }
+        }
+        return Arrays.asList(distinct == values.length ? values : Arrays.copyOf(values, distinct));
+    }
+}
@@ -0,0 +1,146 @@
+package com.moonrider.zamazon.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.R2dbcException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Reruns work that lost a race with another writer: an optimistic lock
+// failure (a merge decided on a cluster that changed under it) or a unique
+// violation from a row written concurrently. Other integrity violations, such
+// as a NOT NULL column or a value too long for its column, fail the same way
+// on every attempt and are rethrown at once. Each attempt must be
+// its own transaction, so the work is a call through a @Transactional proxy
+// and the retry sits outside it. Attempts back off exponentially with full
+// jitter, so writers that collided once do not collide again in lockstep.
+@Component
+public class ConflictRetry {
+
+    private static final Logger log = LoggerFactory.getLogger(ConflictRetry.class);
+
+    // SQLState of a unique constraint violation (H2, PostgreSQL)
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+
+    private final Counter optimisticLockRetries;
+    private final Counter constraintRetries;
+    private final Counter exhausted;
+
+    public ConflictRetry(MeterRegistry meterRegistry,
+            @Value("${contact.identify.retry.max-attempts:6}") int maxAttempts,
+            @Value("${contact.identify.retry.base-delay:10ms}") Duration baseDelay) {
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.baseDelayNanos = baseDelay.toNanos();
+        optimisticLockRetries = retryCounter(meterRegistry, "optimistic_lock");
+        constraintRetries = retryCounter(meterRegistry, "constraint");
+        exhausted = Counter.builder("identify.retry.exhausted")
+                .description("Identify requests that still conflicted after the last attempt")
+                .register(meterRegistry);
+    }
+
+    public <T> T run(Supplier<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return work.get();
+            } catch (OptimisticLockingFailureException | DataIntegrityViolationException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+                if (attempt >= maxAttempts) {
+                    exhausted.increment();
+                    throw e;
+                }
+                (e instanceof OptimisticLockingFailureException ? optimisticLockRetries : constraintRetries)
+                        .increment();
+                log.debug("Attempt {} conflicted with another writer, retrying", attempt, e);
+                backOff(attempt);
+            }
+        }
+    }
+
+    // The same for a reactive pipeline: work is resubscribed after a conflict,
+    // so it must open its own transaction on subscription, and the backoff is
+    // a timer instead of a sleep
+    public <T> Mono<T> run(Mono<T> work) {
+        return work.retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable e = signal.failure();
+            long attempt = signal.totalRetries() + 1;
+            if (!isConflict(e)) {
+                return Mono.error(e);
+            }
+            if (attempt >= maxAttempts) {
+                exhausted.increment();
+                return Mono.error(e);
+            }
+            (e instanceof OptimisticLockingFailureException ? optimisticLockRetries : constraintRetries)
+                    .increment();
+            log.debug("Attempt {} conflicted with another writer, retrying", attempt, e);
+            long delay = backOffNanos(attempt);
+            return delay > 0 ? Mono.delay(Duration.ofNanos(delay)) : Mono.just(attempt);
+        })));
+    }
+
+    // Hibernate reports a unique violation as a plain
+    // DataIntegrityViolationException, so the SQLState is read from the cause
+    static boolean isConflict(Throwable e) {
+        if (e instanceof OptimisticLockingFailureException || e instanceof DuplicateKeyException) {
+            return true;
+        }
+        if (!(e instanceof DataIntegrityViolationException)) {
+            return false;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException
+                    && UNIQUE_VIOLATION.equals(sqlException.getSQLState())) {
+                return true;
+            }
+            if (cause instanceof R2dbcException r2dbcException
+                    && UNIQUE_VIOLATION.equals(r2dbcException.getSqlState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sleeps for a random time up to baseDelay * 2^(attempt - 1)
+    private void backOff(int attempt) {
+        long delay = backOffNanos(attempt);
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off from a conflict", e);
+        }
+    }
+
+    private long backOffNanos(long attempt) {
+        long ceiling = baseDelayNanos << Math.min(attempt - 1, 16);
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling) + 1;
+    }
+
+    private static Counter retryCounter(MeterRegistry meterRegistry, String cause) {
+        return Counter.builder("identify.retries")
+                .description("Identify attempts rerun after a conflict with another writer")
+                .tag("cause", cause)
+                .register(meterRegistry);
+    }
+}
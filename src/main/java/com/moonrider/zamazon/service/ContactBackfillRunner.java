@@ -0,0 +1,84 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.ContactInvariantReport;
+import com.moonrider.zamazon.entity.ContactBackfillMarker;
+import com.moonrider.zamazon.repository.ContactBackfillMarkerRepository;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.context.WebServerGracefulShutdownLifecycle;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+// Brings existing rows up to the current schema on startup, then reports any
+// rootPrimaryId invariant that still does not hold. Runs as a lifecycle phase
+// ahead of the web server's, so no request is served until every row has its
+// lookup keys; a row without them is not matched, and identify would create
+// a second primary for it. It also runs before any ApplicationRunner, such as
+// a contact import.
+//
+// Both backfills walk the whole table, so a completed run is recorded in a
+// ContactBackfillMarker with the ContactNormalizer rules version it applied,
+// and later starts skip them. Rows written since already carry their root
+// and keys. A start with newer rules runs them again, which rewrites the keys
+// computed under the old ones.
+@Component
+@ConditionalOnProperty(name = "contact.backfill.enabled", havingValue = "true", matchIfMissing = true)
+public class ContactBackfillRunner implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactBackfillRunner.class);
+
+    // The web server starts in phase SMART_LIFECYCLE_PHASE - 1024
+    private static final int PHASE = WebServerGracefulShutdownLifecycle.SMART_LIFECYCLE_PHASE - 2048;
+
+    static final String MARKER_NAME = "contacts";
+
+    @Autowired
+    private ContactIntegrityService contactIntegrityService;
+
+    @Autowired
+    private ContactBackfillMarkerRepository markerRepository;
+
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        Optional<ContactBackfillMarker> marker = markerRepository.findById(MARKER_NAME);
+        if (marker.isPresent() && marker.get().getVersion() >= ContactNormalizer.RULES_VERSION) {
+            log.debug("Contact backfill already completed at {}", marker.get().getCompletedAt());
+            running = true;
+            return;
+        }
+
+        contactIntegrityService.backfillRootPrimaryIds();
+        contactIntegrityService.backfillContactKeys();
+        markerRepository.save(new ContactBackfillMarker(MARKER_NAME, ContactNormalizer.RULES_VERSION,
+                LocalDateTime.now()));
+
+        ContactInvariantReport report = contactIntegrityService.checkInvariants();
+        if (!report.isHealthy()) {
+            log.warn("Contact invariants violated after backfill: {}", report);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+}
@@ -0,0 +1,171 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.repository.ContactRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Deleting contacts. A delete only stamps deleted_at (ContactService.
+// deleteContact), which every lookup already filters on; the row stays as a
+// tombstone until compaction removes it for good once it is older than the
+// retention window.
+//
+// Compaction runs on its own thread every contact.compaction.interval. It
+// walks the table by primary key, batch-size ids per transaction like the
+// root backfill, and pauses after each batch that deleted something, so it
+// never holds many row locks or a long transaction against the identify
+// traffic. No index on deleted_at is needed: nearly every row has it null,
+// and such an index would compete with the lookup indexes for the
+// "deletedAt IS NULL" predicate. Running it on several instances at once is
+// safe: they only delete the same rows sooner.
+@Service
+public class ContactDeletionService {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactDeletionService.class);
+
+    private static final String PURGE_SQL = "DELETE FROM contacts WHERE id BETWEEN ? AND ? AND deleted_at < ?";
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ConflictRetry conflictRetry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${contact.compaction.enabled:true}")
+    private boolean compactionEnabled = true;
+
+    // How long a deleted contact is kept before it is purged
+    @Value("${contact.compaction.retention:30d}")
+    private Duration retention = Duration.ofDays(30);
+
+    @Value("${contact.compaction.interval:1h}")
+    private Duration interval = Duration.ofHours(1);
+
+    // Ids scanned per transaction
+    @Value("${contact.compaction.batch-size:1000}")
+    private int batchSize = 1000;
+
+    @Value("${contact.compaction.batch-pause:50ms}")
+    private Duration batchPause = Duration.ofMillis(50);
+
+    private Counter deleted;
+    private Counter purged;
+
+    // Held while compacting, so compact and the worker take turns
+    private final ReentrantLock compactLock = new ReentrantLock();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    @PostConstruct
+    void start() {
+        deleted = Counter.builder("contact.deleted")
+                .description("Contacts soft-deleted through the delete API")
+                .register(meterRegistry);
+        purged = Counter.builder("contact.compaction.purged")
+                .description("Deleted contacts removed from the table by compaction")
+                .register(meterRegistry);
+
+        if (!compactionEnabled) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "contact-compaction");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        thread.join();
+    }
+
+    // False if there is no active contact with this id
+    public boolean delete(long id) {
+        boolean found = conflictRetry.run(() -> contactService.deleteContact(id));
+        if (found) {
+            deleted.increment();
+        }
+        return found;
+    }
+
+    // Purges every tombstone older than the retention window on the calling
+    // thread; returns how many
+    public int compact() {
+        compactLock.lock();
+        try {
+            Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minus(retention));
+            long maxId = contactRepository.findMaxId();
+            int total = 0;
+            for (long from = 1; from <= maxId && !Thread.currentThread().isInterrupted(); from += batchSize) {
+                long start = from;
+                long end = from + batchSize - 1;
+                Integer count = transactionTemplate.execute(status -> jdbcTemplate.update(PURGE_SQL,
+                        start, end, cutoff));
+                int removed = count != null ? count : 0;
+                if (removed > 0) {
+                    purged.increment(removed);
+                    total += removed;
+                    pause(batchPause);
+                }
+            }
+            return total;
+        } finally {
+            compactLock.unlock();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                int removed = compact();
+                if (removed > 0) {
+                    log.info("Compaction purged {} deleted contacts", removed);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Compaction failed, retrying next interval", e);
+            }
+            pause(interval);
+        }
+    }
+
+    private void pause(Duration duration) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(duration.toNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
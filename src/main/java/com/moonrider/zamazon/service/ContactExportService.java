@@ -0,0 +1,140 @@
+package com.moonrider.zamazon.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+// Dumps every active cluster as NDJSON, one IdentifyResponse per line. Rows
+// are read through a forward-only JDBC cursor ordered by cluster root, so a
+// cluster is complete once the root changes and is written out right away.
+// Nothing goes through the persistence context and only the current cluster
+// is held, so memory does not grow with the table. The whole export runs in
+// one read-only transaction: PostgreSQL only fetches by cursor inside one.
+// It is repeatable read, so the pending asynchronous merges and the rows are
+// read from the same snapshot. Clusters a pending merge joins are gathered
+// under their final root and written at the end.
+@Service
+public class ContactExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactExportService.class);
+
+    // Served by idx_contacts_root_primary_id, so rows arrive in cluster order
+    // without a sort. Rows without a root yet are left out; the startup
+    // backfill assigns one.
+    private static final String EXPORT_SQL = "SELECT id, email, phone_number, link_precedence, root_primary_id "
+            + "FROM contacts WHERE deleted_at IS NULL AND root_primary_id IS NOT NULL "
+            + "ORDER BY root_primary_id, id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ContactMergeQueue mergeQueue;
+
+    // Rows per round trip of the cursor
+    @Value("${contact.export.fetch-size:1000}")
+    private int fetchSize = 1000;
+
+    // Returns the number of clusters written
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public long exportClusters(OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        ClusterWriter clusters = new ClusterWriter(writer, mergeQueue.pendingRoots());
+        long startTime = System.nanoTime();
+        try {
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(EXPORT_SQL,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                return statement;
+            }, clusters);
+            clusters.finish();
+            clusters.finishMerged();
+        } catch (UncheckedIOException e) {
+            // Typically the client went away mid-download
+            throw e.getCause();
+        }
+        writer.flush();
+        log.info("Exported {} clusters in {} ms", clusters.written,
+                (System.nanoTime() - startTime) / 1_000_000);
+        return clusters.written;
+    }
+
+    private class ClusterWriter implements RowCallbackHandler {
+
+        private final Writer writer;
+
+        // Demoted primary of a pending merge -> root its members end up under
+        private final Map<Long, Long> pendingRoots;
+        private final Set<Long> mergedRootIds;
+        private final Map<Long, ClusterResponseBuilder> merged = new TreeMap<>();
+
+        private long rootId = -1;
+        private ClusterResponseBuilder cluster;
+        private long written;
+
+        ClusterWriter(Writer writer, Map<Long, Long> pendingRoots) {
+            this.writer = writer;
+            this.pendingRoots = pendingRoots;
+            this.mergedRootIds = new HashSet<>(pendingRoots.values());
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long root = rs.getLong("root_primary_id");
+            if (root != rootId) {
+                finish();
+                rootId = root;
+                long finalRootId = pendingRoots.getOrDefault(root, root);
+                cluster = mergedRootIds.contains(finalRootId)
+                        ? merged.computeIfAbsent(finalRootId, id -> new ClusterResponseBuilder(4))
+                        : new ClusterResponseBuilder(4);
+            }
+            long id = rs.getLong("id");
+            cluster.add(rs.getString("email"), rs.getString("phone_number"),
+                    !"PRIMARY".equals(rs.getString("link_precedence")), id);
+        }
+
+        void finish() {
+            if (cluster == null) {
+                return;
+            }
+            if (!mergedRootIds.contains(pendingRoots.getOrDefault(rootId, rootId))) {
+                write(cluster.build(rootId));
+            }
+            cluster = null;
+        }
+
+        void finishMerged() {
+            merged.forEach((id, builder) -> write(builder.build(id)));
+        }
+
+        private void write(IdentifyResponse response) {
+            try {
+                writer.write(objectMapper.writeValueAsString(response));
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            written++;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.ContactImportReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+
+// Imports contact.import.file on startup, after the backfill has given every
+// existing row its lookup keys. Started without a web server, e.g.
+//   java -jar app.jar --contact.import.file=orders.csv --spring.main.web-application-type=none
+// the application exits once the file is loaded. The import is named after
+// the file unless contact.import.name says otherwise; run it again under the
+// same name to resume.
+@Component
+@ConditionalOnProperty(name = "contact.import.file")
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class ContactImportRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactImportRunner.class);
+
+    @Autowired
+    private ContactImportService contactImportService;
+
+    @Value("${contact.import.file}")
+    private Path file;
+
+    @Value("${contact.import.name:}")
+    private String importName;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        String name = importName.isBlank() ? file.getFileName().toString() : importName;
+        ContactImportReport report = contactImportService.importFile(file, name);
+        log.info("Contact import finished: {}", report);
+    }
+}
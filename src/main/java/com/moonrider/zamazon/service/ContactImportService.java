@@ -0,0 +1,266 @@
+package com.moonrider.zamazon.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moonrider.zamazon.dto.BatchIdentifyResult;
+import com.moonrider.zamazon.dto.ContactImportReport;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.entity.ContactImportCheckpoint;
+import com.moonrider.zamazon.repository.ContactImportCheckpointRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+// Loads historical email/phone pairs from a CSV or NDJSON file. Lines are
+// read through ImportLineReader and handed to BatchIdentifyService in chunks
+// of contact.import.chunk-size rows, so memory is bounded by one chunk and
+// the clusters it touches, whatever the size of the file. Each batch chunk
+// builds its clusters in memory and writes them in JDBC batches
+// (ContactService.identifyChunk), with the same PRIMARY/SECONDARY structure
+// as calling identify once per row, in file order.
+//
+// After every chunk the offset of the next line is saved under the import's
+// name, and importing the same file under that name again continues there.
+// A chunk written just before a crash but not yet checkpointed is identified
+// again on resume, which adds nothing for pairs that are already known.
+//
+// Rows get the time of the import as created_at, so the file should list
+// pairs in the order of the original orders for the oldest to stay primary.
+@Service
+public class ContactImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactImportService.class);
+
+    public enum Format {
+        CSV, NDJSON;
+
+        // By extension; anything but .csv is read as NDJSON
+        public static Format of(Path file) {
+            return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : NDJSON;
+        }
+    }
+
+    @Autowired
+    private BatchIdentifyService batchIdentifyService;
+
+    @Autowired
+    private ContactImportCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Rows per checkpoint; each is identified in batch chunks of
+    // contact.batch.chunk-size
+    @Value("${contact.import.chunk-size:5000}")
+    private int chunkSize = 5000;
+
+    @Value("${contact.import.progress-every:100000}")
+    private long progressEvery = 100_000;
+
+    public ContactImportReport importFile(Path file, String importName) throws IOException {
+        Format format = Format.of(file);
+        long fileSize = Files.size(file);
+
+        Optional<ContactImportCheckpoint> saved = checkpointRepository.findById(importName);
+        ContactImportCheckpoint checkpoint;
+        if (saved.isPresent() && saved.get().getFileSize() == fileSize) {
+            checkpoint = saved.get();
+        } else {
+            if (saved.isPresent()) {
+                log.warn("Import {}: file size changed from {} to {} bytes, starting over", importName,
+                        saved.get().getFileSize(), fileSize);
+            }
+            checkpoint = new ContactImportCheckpoint(importName, fileSize);
+        }
+        long resumedAtRow = checkpoint.getRowsRead();
+        if (resumedAtRow > 0) {
+            log.info("Import {}: resuming after {} rows at byte {}", importName, resumedAtRow,
+                    checkpoint.getByteOffset());
+        }
+
+        Counter imported = rowCounter("imported");
+        Counter invalid = rowCounter("invalid");
+        Counter failed = rowCounter("failed");
+        long startTime = System.nanoTime();
+
+        try (ImportLineReader reader = new ImportLineReader(file)) {
+            CsvColumns columns = null;
+            if (format == Format.CSV) {
+                String header = reader.readLine();
+                columns = CsvColumns.of(header);
+                checkpoint.setByteOffset(Math.max(checkpoint.getByteOffset(), reader.offset()));
+            }
+            reader.seek(checkpoint.getByteOffset());
+
+            List<IdentifyRequest> chunk = new ArrayList<>(chunkSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                // An unusable row stays in the chunk as null and is counted as invalid
+                chunk.add(reader.isTruncated() ? null : parse(line, columns));
+                if (chunk.size() == chunkSize) {
+                    importChunk(chunk, checkpoint, reader.offset(), imported, invalid, failed);
+                    logProgress(checkpoint, resumedAtRow, startTime);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                importChunk(chunk, checkpoint, reader.offset(), imported, invalid, failed);
+            }
+        }
+
+        checkpoint.setByteOffset(fileSize);
+        checkpoint.setCompletedAt(LocalDateTime.now());
+        checkpointRepository.save(checkpoint);
+        log.info("Import {} completed: {} rows read, {} imported, {} invalid, {} failed in {}s", importName,
+                checkpoint.getRowsRead(), checkpoint.getRowsImported(), checkpoint.getRowsInvalid(),
+                checkpoint.getRowsFailed(), (System.nanoTime() - startTime) / 1_000_000_000);
+
+        return new ContactImportReport(importName, resumedAtRow, checkpoint.getRowsRead(),
+                checkpoint.getRowsImported(), checkpoint.getRowsInvalid(), checkpoint.getRowsFailed(), true);
+    }
+
+    private void importChunk(List<IdentifyRequest> chunk, ContactImportCheckpoint checkpoint, long nextOffset,
+            Counter imported, Counter invalid, Counter failed) {
+        for (BatchIdentifyResult result : batchIdentifyService.identifyAll(chunk)) {
+            if (result.getStatus() == 200) {
+                checkpoint.setRowsImported(checkpoint.getRowsImported() + 1);
+                imported.increment();
+            } else if (result.getStatus() == 400) {
+                checkpoint.setRowsInvalid(checkpoint.getRowsInvalid() + 1);
+                invalid.increment();
+            } else {
+                checkpoint.setRowsFailed(checkpoint.getRowsFailed() + 1);
+                failed.increment();
+            }
+        }
+        checkpoint.setRowsRead(checkpoint.getRowsRead() + chunk.size());
+        checkpoint.setByteOffset(nextOffset);
+        checkpoint.setUpdatedAt(LocalDateTime.now());
+        checkpointRepository.save(checkpoint);
+    }
+
+    private void logProgress(ContactImportCheckpoint checkpoint, long resumedAtRow, long startTime) {
+        long rows = checkpoint.getRowsRead();
+        if (rows / progressEvery == (rows - chunkSize) / progressEvery) {
+            return;
+        }
+        double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 0.001);
+        long percent = checkpoint.getByteOffset() * 100 / Math.max(checkpoint.getFileSize(), 1);
+        log.info("Import {}: {} rows read ({}% of the file), {} imported, {} invalid, {} failed, {} rows/s",
+                checkpoint.getImportName(), rows, percent, checkpoint.getRowsImported(), checkpoint.getRowsInvalid(),
+                checkpoint.getRowsFailed(), Math.round((rows - resumedAtRow) / seconds));
+    }
+
+    private IdentifyRequest parse(String line, CsvColumns columns) {
+        if (columns != null) {
+            return columns.parse(line);
+        }
+        try {
+            return objectMapper.readValue(line, IdentifyRequest.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private Counter rowCounter(String result) {
+        return Counter.builder("contact.import.rows")
+                .description("Rows read by contact imports, by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    // Positions of the email and phone columns, taken from the header row.
+    // Fields may be double-quoted, with "" for a quote inside them; an empty
+    // field is no value.
+    record CsvColumns(int email, int phoneNumber) {
+
+        static CsvColumns of(String header) {
+            if (header == null) {
+                throw new IllegalArgumentException("CSV import file has no header row");
+            }
+            List<String> names = split(header);
+            int email = -1;
+            int phoneNumber = -1;
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i).trim().replace("_", "").toLowerCase(Locale.ROOT);
+                if (name.equals("email")) {
+                    email = i;
+                } else if (name.equals("phonenumber") || name.equals("phone")) {
+                    phoneNumber = i;
+                }
+            }
+            if (email < 0 && phoneNumber < 0) {
+                throw new IllegalArgumentException("CSV header names neither an email nor a phone number column: "
+                        + header);
+            }
+            return new CsvColumns(email, phoneNumber);
+        }
+
+        IdentifyRequest parse(String line) {
+            List<String> fields = split(line);
+            if (fields == null) {
+                return null;
+            }
+            return new IdentifyRequest(field(fields, email), field(fields, phoneNumber));
+        }
+
+        private static String field(List<String> fields, int index) {
+            if (index < 0 || index >= fields.size()) {
+                return null;
+            }
+            String value = fields.get(index).trim();
+            return value.isEmpty() ? null : value;
+        }
+
+        // Null for an unterminated quote
+        static List<String> split(String line) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char ch = line.charAt(i);
+                if (quoted) {
+                    if (ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (ch == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(ch);
+                    }
+                } else if (ch == '"') {
+                    quoted = true;
+                } else if (ch == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(ch);
+                }
+            }
+            if (quoted) {
+                return null;
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
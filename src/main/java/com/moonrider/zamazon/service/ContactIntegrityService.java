@@ -0,0 +1,122 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.ContactInvariantReport;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import com.moonrider.zamazon.repository.ContactRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntSupplier;
+
+@Service
+public class ContactIntegrityService {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactIntegrityService.class);
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${contact.backfill.batch-size:10000}")
+    private long batchSize;
+
+    // Stamps rootPrimaryId on rows written before the column existed. Each id
+    // range is updated in its own short transaction so the backfill can run
+    // against a live table; running it again only touches rows still missing
+    // a root.
+    public long backfillRootPrimaryIds() {
+        long maxId = contactRepository.findMaxId();
+        long updated = 0;
+
+        for (long from = 1; from <= maxId; from += batchSize) {
+            long start = from;
+            long end = from + batchSize - 1;
+            updated += inTransaction(() -> contactRepository.backfillRootsOfUnlinked(start, end));
+        }
+
+        // Each pass resolves one more level of linkedId chains
+        int passUpdated;
+        do {
+            passUpdated = 0;
+            for (long from = 1; from <= maxId; from += batchSize) {
+                long start = from;
+                long end = from + batchSize - 1;
+                passUpdated += inTransaction(() -> contactRepository.backfillRootsFromParents(start, end));
+            }
+            updated += passUpdated;
+        } while (passUpdated > 0);
+
+        if (updated > 0) {
+            log.info("Backfilled rootPrimaryId on {} contacts", updated);
+        }
+        return updated;
+    }
+
+    // Rewrites emailKey and phoneKey on every row whose stored keys differ
+    // from the ones the current ContactNormalizer rules give: rows stored
+    // before the key columns existed, and rows keyed under older rules. One id
+    // range per transaction like the root backfill. Until a row has its keys,
+    // identify does not find it by email or phone number. Clusters that turn
+    // out to share a normalized key are merged the next time a request
+    // touches them, as identify merges any two clusters.
+    public long backfillContactKeys() {
+        long maxId = contactRepository.findMaxId();
+        long updated = 0;
+
+        for (long from = 1; from <= maxId; from += batchSize) {
+            long start = from;
+            long end = from + batchSize - 1;
+            updated += inTransaction(() -> {
+                // Read as plain rows: every row of the range is visited, and
+                // none of them needs to become a managed entity
+                List<Object[]> keys = new ArrayList<>();
+                jdbcTemplate.query("SELECT id, email, phone_number, email_key, phone_key FROM contacts "
+                        + "WHERE id BETWEEN ? AND ?", rs -> {
+                    Long emailKey = ContactNormalizer.emailKey(rs.getString("email"));
+                    Long phoneKey = ContactNormalizer.phoneKey(rs.getString("phone_number"));
+                    if (!Objects.equals(emailKey, rs.getObject("email_key", Long.class))
+                            || !Objects.equals(phoneKey, rs.getObject("phone_key", Long.class))) {
+                        keys.add(new Object[] { emailKey, phoneKey, rs.getLong("id") });
+                    }
+                }, start, end);
+                if (!keys.isEmpty()) {
+                    jdbcTemplate.batchUpdate("UPDATE contacts SET email_key = ?, phone_key = ? WHERE id = ?", keys);
+                }
+                return keys.size();
+            });
+        }
+
+        if (updated > 0) {
+            log.info("Backfilled email and phone keys on {} contacts", updated);
+        }
+        return updated;
+    }
+
+    @Transactional(readOnly = true)
+    public ContactInvariantReport checkInvariants() {
+        return new ContactInvariantReport(
+                contactRepository.countMissingRootPrimaryId(),
+                contactRepository.countPrimariesNotOwnRoot(),
+                contactRepository.countSecondariesWithInvalidRoot(),
+                contactRepository.countContactsWithDivergentRoot());
+    }
+
+    private int inTransaction(IntSupplier work) {
+        Integer result = transactionTemplate.execute(status -> work.getAsInt());
+        return result != null ? result : 0;
+    }
+}
@@ -0,0 +1,312 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.entity.ContactMergeIntent;
+import com.moonrider.zamazon.repository.ContactMergeIntentRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Outbox of merges whose demoted clusters are moved under the surviving root
+// in the background (contact.merge.async.enabled). The identify that decides
+// a merge demotes the primaries and records one ContactMergeIntent per
+// demoted primary in its own transaction, so it costs the same whatever the
+// size of the clusters. Until an intent is applied, the members of the
+// demoted cluster still carry the demoted primary as their root; readers ask
+// pendingRoots for the root they will end up under.
+//
+// One worker thread applies the intents in the order they were recorded,
+// since a merge can demote the root of an earlier, still pending one. Each
+// intent moves its members in chunks of chunk-size rows, one transaction per
+// chunk, and is deleted after the last one. A chunk only touches rows that
+// still name the demoted primary, so an intent interrupted halfway is simply
+// applied again. Intents left over from a run with the flag on are drained
+// on the next start even when it is off.
+@Component
+public class ContactMergeQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactMergeQueue.class);
+
+    // Mirrors ContactRepository.reparentClusters for one demoted primary, a
+    // chunk at a time
+    private static final String REPARENT_SQL = "UPDATE contacts SET "
+            + "root_primary_id = CASE WHEN root_primary_id = ? THEN ? ELSE root_primary_id END, "
+            + "linked_id = CASE WHEN linked_id = ? THEN ? ELSE linked_id END, "
+            + "updated_at = ?, version = version + 1 "
+            + "WHERE id IN (SELECT id FROM contacts WHERE root_primary_id = ? OR linked_id = ? LIMIT ?)";
+
+    @Autowired
+    private ContactMergeIntentRepository intentRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${contact.merge.async.enabled:false}")
+    private boolean enabled;
+
+    // Contacts moved per transaction
+    @Value("${contact.merge.async.chunk-size:1000}")
+    private int chunkSize = 1000;
+
+    // How long the worker sleeps when the queue is empty; a committed merge
+    // wakes it right away
+    @Value("${contact.merge.async.poll-interval:1s}")
+    private Duration pollInterval = Duration.ofSeconds(1);
+
+    private final AtomicLong depth = new AtomicLong();
+    private final AtomicReference<LocalDateTime> oldest = new AtomicReference<>();
+    private Counter movedContacts;
+
+    // Held while intents are applied, so drain and the worker take turns
+    private final ReentrantLock applyLock = new ReentrantLock();
+
+    private final ReentrantLock wakeLock = new ReentrantLock();
+    private final Condition wake = wakeLock.newCondition();
+    private boolean wakeRequested;
+
+    // True while intents may exist: always with the flag on, otherwise until
+    // the leftovers are drained
+    private volatile boolean active;
+    private volatile boolean running;
+    private Thread thread;
+
+    @PostConstruct
+    void start() {
+        Gauge.builder("contact.merge.queue.depth", depth, AtomicLong::get)
+                .description("Merges decided but not yet applied to the demoted clusters")
+                .register(meterRegistry);
+        Gauge.builder("contact.merge.lag", this, ContactMergeQueue::lagSeconds)
+                .description("Age of the oldest merge not yet applied")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        movedContacts = Counter.builder("contact.merge.contacts.moved")
+                .description("Contacts moved under their new root by the merge worker")
+                .register(meterRegistry);
+
+        refreshGauges();
+        active = enabled || depth.get() > 0;
+        if (!active) {
+            return;
+        }
+        if (!enabled) {
+            log.info("Draining {} merges left from a run with asynchronous merges on", depth.get());
+        }
+
+        running = true;
+        thread = new Thread(this::run, "contact-merge-worker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        wakeUp();
+        thread.join();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public long getDepth() {
+        return depth.get();
+    }
+
+    // Maps every demoted primary with a pending merge connected to the given
+    // cluster roots to the root its cluster ends up under. The returned map
+    // is mutable; record keeps it in line with the merges of the caller's
+    // transaction.
+    public Map<Long, Long> pendingRoots(Collection<Long> rootIds) {
+        Map<Long, Long> parents = new HashMap<>();
+        if (!active || rootIds.isEmpty()) {
+            return parents;
+        }
+
+        Set<Long> seen = new HashSet<>(rootIds);
+        Collection<Long> frontier = new ArrayList<>(seen);
+        while (!frontier.isEmpty()) {
+            List<Long> next = new ArrayList<>();
+            for (ContactMergeIntent intent : intentRepository.findTouching(frontier)) {
+                parents.put(intent.getDemotedId(), intent.getRootId());
+                if (seen.add(intent.getDemotedId())) {
+                    next.add(intent.getDemotedId());
+                }
+                if (seen.add(intent.getRootId())) {
+                    next.add(intent.getRootId());
+                }
+            }
+            frontier = next;
+        }
+        return finalRoots(parents);
+    }
+
+    // The same for every pending merge
+    public Map<Long, Long> pendingRoots() {
+        Map<Long, Long> parents = new HashMap<>();
+        if (active) {
+            intentRepository.findAll().forEach(i -> parents.put(i.getDemotedId(), i.getRootId()));
+        }
+        return finalRoots(parents);
+    }
+
+    // Queues the members of the demoted clusters for moving under rootId, in
+    // the caller's transaction, and updates pendingRoots to match
+    public void record(Long rootId, Collection<Long> demotedIds, Map<Long, Long> pendingRoots, LocalDateTime now) {
+        List<ContactMergeIntent> intents = new ArrayList<>(demotedIds.size());
+        new TreeSet<>(demotedIds).forEach(id -> intents.add(new ContactMergeIntent(id, rootId, now)));
+        intentRepository.saveAll(intents);
+
+        pendingRoots.replaceAll((id, root) -> demotedIds.contains(root) ? rootId : root);
+        demotedIds.forEach(id -> pendingRoots.put(id, rootId));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp();
+                }
+            });
+        }
+    }
+
+    // Sends pending merges into a deleted root to the contact promoted in its
+    // place, in the caller's transaction
+    public void retarget(Long rootId, Long successorId) {
+        if (active) {
+            intentRepository.retargetRoot(rootId, successorId);
+        }
+    }
+
+    // Applies every pending merge on the calling thread; returns how many
+    public int drain() {
+        applyLock.lock();
+        try {
+            int applied = 0;
+            List<ContactMergeIntent> intents;
+            while (!(intents = intentRepository.findTop100ByOrderByIdAsc()).isEmpty()) {
+                for (ContactMergeIntent intent : intents) {
+                    apply(intent);
+                    applied++;
+                }
+                refreshGauges();
+            }
+            refreshGauges();
+            return applied;
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (drain() == 0 && !enabled) {
+                    log.info("Left over merges drained");
+                    active = false;
+                    return;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Applying merges failed, retrying", e);
+            }
+            awaitWork();
+        }
+    }
+
+    private void apply(ContactMergeIntent intent) {
+        Long demotedId = intent.getDemotedId();
+        Long rootId = intent.getRootId();
+        int moved;
+        do {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            Integer updated = transactionTemplate.execute(status -> jdbcTemplate.update(REPARENT_SQL,
+                    demotedId, rootId, demotedId, rootId, now, demotedId, demotedId, chunkSize));
+            moved = updated != null ? updated : 0;
+            movedContacts.increment(moved);
+        } while (moved == chunkSize);
+
+        intentRepository.deleteById(intent.getId());
+    }
+
+    private void awaitWork() {
+        wakeLock.lock();
+        try {
+            if (!wakeRequested && running) {
+                wake.await(pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            wakeRequested = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        } finally {
+            wakeLock.unlock();
+        }
+    }
+
+    private void wakeUp() {
+        wakeLock.lock();
+        try {
+            wakeRequested = true;
+            wake.signalAll();
+        } finally {
+            wakeLock.unlock();
+        }
+    }
+
+    private void refreshGauges() {
+        depth.set(intentRepository.count());
+        oldest.set(intentRepository.findOldestCreatedAt());
+    }
+
+    private double lagSeconds() {
+        LocalDateTime since = oldest.get();
+        return since == null ? 0 : Duration.between(since, LocalDateTime.now()).toMillis() / 1000.0;
+    }
+
+    // Follows chains of pending merges (a root demoted after its own merge
+    // was recorded) to the root at their end
+    static Map<Long, Long> finalRoots(Map<Long, Long> parents) {
+        Map<Long, Long> roots = new HashMap<>(parents.size() * 2);
+        for (Long demotedId : parents.keySet()) {
+            Long root = parents.get(demotedId);
+            while (parents.containsKey(root)) {
+                root = parents.get(root);
+            }
+            roots.put(demotedId, root);
+        }
+        return roots;
+    }
+}
@@ -0,0 +1,83 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.ClusterPage;
+import com.moonrider.zamazon.dto.ClusterView;
+import com.moonrider.zamazon.dto.ContactSummary;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.repository.ContactRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+// Read API over clusters for ops tooling: one cluster by its primary, and
+// all clusters a page at a time. Both read DTO projections, and members of a
+// cluster with a pending asynchronous merge are shown under the root they
+// are moved to, as identify would answer.
+@Service
+@Transactional(readOnly = true)
+public class ContactQueryService {
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactMergeQueue mergeQueue;
+
+    @Value("${contact.read.max-page-size:500}")
+    private int maxPageSize = 500;
+
+    // Empty unless the id is an active primary
+    public Optional<ClusterView> findCluster(long primaryId) {
+        List<ContactSummary> contacts = loadMembers(List.of(primaryId));
+        boolean isPrimary = contacts.stream()
+                .anyMatch(c -> c.getId() == primaryId && c.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY);
+        return isPrimary ? Optional.of(new ClusterView(primaryId, contacts)) : Optional.empty();
+    }
+
+    // Clusters whose primary id is above after, at most limit of them
+    public ClusterPage listClusters(long after, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        int pageSize = Math.min(limit, maxPageSize);
+        List<Long> primaryIds = contactRepository.findPrimaryIdsAfter(after, Limit.of(pageSize));
+        if (primaryIds.isEmpty()) {
+            return new ClusterPage(List.of(), null);
+        }
+
+        Map<Long, Long> pendingRoots = mergeQueue.pendingRoots(primaryIds);
+        Map<Long, ClusterResponseBuilder> clusters = new LinkedHashMap<>();
+        primaryIds.forEach(id -> clusters.put(id, new ClusterResponseBuilder(4)));
+        for (ContactSummary contact : loadMembers(primaryIds, pendingRoots)) {
+            Long rootId = pendingRoots.getOrDefault(contact.getRootPrimaryId(), contact.getRootPrimaryId());
+            ClusterResponseBuilder cluster = clusters.get(rootId);
+            if (cluster != null) {
+                cluster.add(contact.getEmail(), contact.getPhoneNumber(),
+                        contact.getLinkPrecedence() == Contact.LinkPrecedence.SECONDARY, contact.getId());
+            }
+        }
+
+        List<IdentifyResponse> page = new ArrayList<>(clusters.size());
+        clusters.forEach((id, cluster) -> page.add(cluster.build(id)));
+        Long nextAfter = primaryIds.size() == pageSize ? primaryIds.get(primaryIds.size() - 1) : null;
+        return new ClusterPage(page, nextAfter);
+    }
+
+    private List<ContactSummary> loadMembers(List<Long> rootIds) {
+        return loadMembers(rootIds, mergeQueue.pendingRoots(rootIds));
+    }
+
+    private List<ContactSummary> loadMembers(List<Long> rootIds, Map<Long, Long> pendingRoots) {
+        if (pendingRoots.isEmpty()) {
+            return contactRepository.findSummariesByRootPrimaryIdIn(rootIds);
+        }
+        Set<Long> allRootIds = new HashSet<>(rootIds);
+        allRootIds.addAll(pendingRoots.keySet());
+        return contactRepository.findSummariesByRootPrimaryIdIn(allRootIds);
+    }
+}
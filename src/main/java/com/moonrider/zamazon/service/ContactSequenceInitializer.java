@@ -0,0 +1,43 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.entity.Contact;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+// Contact ids used to come from an IDENTITY column. On a table that already
+// has rows the new sequence starts below max(id), so it is moved past it
+// before the application accepts traffic. The check draws one value from the
+// sequence; with pooled-lo that just skips one block of ids.
+@Component
+public class ContactSequenceInitializer {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactSequenceInitializer.class);
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void alignSequence() {
+        Dialect dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+
+        long next = jdbcTemplate.queryForObject(
+                dialect.getSequenceSupport().getSequenceNextValString(Contact.ID_SEQUENCE), Long.class);
+        long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM contacts", Long.class);
+
+        if (next <= maxId) {
+            // Standard SQL; understood by both H2 and PostgreSQL
+            jdbcTemplate.execute("ALTER SEQUENCE " + Contact.ID_SEQUENCE + " RESTART WITH " + (maxId + 1));
+            log.info("Restarted {} at {} to follow existing contact ids", Contact.ID_SEQUENCE, maxId + 1);
+        }
+    }
+}
@@ -3,8 +3,15 @@ package com.moonrider.zamazon.service;
 import com.moonrider.zamazon.dto.IdentifyRequest;
 import com.moonrider.zamazon.dto.IdentifyResponse;
 import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import com.moonrider.zamazon.event.ClusterChangedEvent;
+import com.moonrider.zamazon.event.ContactDeletedEvent;
+import com.moonrider.zamazon.metrics.IdentifyMetrics;
 import com.moonrider.zamazon.repository.ContactRepository;
+import com.moonrider.zamazon.repository.IdentityLockRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -19,163 +26,519 @@ public class ContactService {
     @Autowired
     private ContactRepository contactRepository;
 
+    @Autowired
+    private IdentityLockRepository identityLockRepository;
+
+    @Autowired
+    private IdentityLockManager identityLockManager;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private IdentifyMetrics identifyMetrics;
+
+    @Autowired
+    private ContactMergeQueue mergeQueue;
+
+    // Optimistic read-only phase: answers requests that add nothing to an
+    // existing, fully consolidated cluster without the stripe lock and inside
+    // a read-only transaction (no flush, no dirty checking). An empty result
+    // means the request has to go through identify.
+    @Transactional(readOnly = true)
+    public Optional<IdentifyResponse> findKnown(IdentifyRequest request) {
+        validate(request);
+
+        List<Contact> existingContacts = identifyMetrics.phase("lookup",
+                () -> contactRepository.findByEmailOrPhoneNumber(request.getEmail(), request.getPhoneNumber()));
+
+        if (existingContacts.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Map<Long, Long> pendingRoots = pendingRoots(existingContacts);
+        List<Contact> allRelatedContacts = loadCluster(existingContacts, pendingRoots);
+        identifyMetrics.recordClusterSize(allRelatedContacts.size());
+
+        // A merge committed since the lookup moved a seed out of the loaded
+        // clusters; identify retries that on fresh state
+        if (!seedsLoaded(existingContacts, allRelatedContacts)
+                || !isSettled(request, allRelatedContacts, pendingRoots)) {
+            return Optional.empty();
+        }
+
+        Contact primaryContact = findPrimaryContact(allRelatedContacts);
+        return Optional.of(identifyMetrics.phase("response",
+                () -> buildResponse(primaryContact, allRelatedContacts)));
+    }
+
     public IdentifyResponse identify(IdentifyRequest request) {
         // 1) Validate up front; let IllegalArgumentException bubble
-        if (request.getEmail() == null && request.getPhoneNumber() == null) {
-            throw new IllegalArgumentException("Either email or phone number must be provided");
+        validate(request);
+
+        // 2) Lock the identity's stripes so a concurrent request for the same
+        // email/phone cannot read the same state and create a second primary
+        identifyMetrics.phase("lock", () -> identityLockRepository.lockStripes(
+                identityLockManager.stripesFor(request.getEmail(), request.getPhoneNumber())));
+
+        // 3) Lookup existing contacts and load their clusters
+        List<Contact> existingContacts = identifyMetrics.phase("lookup",
+                () -> contactRepository.findByEmailOrPhoneNumber(request.getEmail(), request.getPhoneNumber()));
+
+        Map<Long, Long> pendingRoots = pendingRoots(existingContacts);
+        List<Contact> cluster = existingContacts.isEmpty() ? new ArrayList<>()
+                : loadCluster(existingContacts, pendingRoots);
+        requireSeedsLoaded(existingContacts, cluster);
+        identifyMetrics.recordClusterSize(cluster.size());
+
+        return resolve(request, cluster, pendingRoots);
+    }
+
+    // Identifies a chunk of already validated requests in one transaction,
+    // with the same outcome as calling identify for each of them in order.
+    // The chunk's stripes are locked once, the clusters of every email and
+    // phone in the chunk are loaded with set-based queries, and each request
+    // is then resolved against that workspace; responses are in input order.
+    public List<IdentifyResponse> identifyChunk(List<IdentifyRequest> requests) {
+        Set<Integer> stripes = new TreeSet<>();
+        Set<String> emails = new HashSet<>();
+        Set<String> phoneNumbers = new HashSet<>();
+        for (IdentifyRequest request : requests) {
+            validate(request);
+            stripes.addAll(identityLockManager.stripesFor(request.getEmail(), request.getPhoneNumber()));
+            if (request.getEmail() != null) {
+                emails.add(request.getEmail());
+            }
+            if (request.getPhoneNumber() != null) {
+                phoneNumbers.add(request.getPhoneNumber());
+            }
         }
 
-        // 2) Lookup existing contacts
-        List<Contact> existingContacts = contactRepository.findByEmailOrPhoneNumber(request.getEmail(),
-                request.getPhoneNumber());
+        identifyMetrics.phase("lock", () -> identityLockRepository.lockStripes(new ArrayList<>(stripes)));
 
-        if (existingContacts.isEmpty()) {
-            return createNewPrimaryContact(request);
+        Map<Long, Contact> seeds = new LinkedHashMap<>();
+        identifyMetrics.phase("lookup", () -> {
+            if (!emails.isEmpty()) {
+                contactRepository.findByEmailIn(emails).forEach(c -> seeds.put(c.getId(), c));
+            }
+            if (!phoneNumbers.isEmpty()) {
+                contactRepository.findByPhoneNumberIn(phoneNumbers).forEach(c -> seeds.put(c.getId(), c));
+            }
+        });
+
+        Map<Long, Long> pendingRoots = pendingRoots(seeds.values());
+        List<Contact> clusters = seeds.isEmpty() ? List.of()
+                : loadCluster(new ArrayList<>(seeds.values()), pendingRoots);
+        requireSeedsLoaded(seeds.values(), clusters);
+        IdentifyWorkspace workspace = new IdentifyWorkspace(clusters, pendingRoots);
+
+        List<IdentifyResponse> responses = new ArrayList<>(requests.size());
+        for (IdentifyRequest request : requests) {
+            IdentifyWorkspace.Match match = workspace.match(request);
+            IdentifyResponse response = resolve(request, match.getContacts(), pendingRoots);
+            workspace.replace(match, response.getPrimaryContactId());
+            responses.add(response);
         }
+        return responses;
+    }
 
-        return processExistingContacts(request, existingContacts);
+    // Soft-deletes an active contact; false if there is none with this id.
+    // The children of a deleted secondary are re-linked to the cluster root.
+    // When the primary is deleted, the oldest remaining contact of the cluster
+    // is promoted and the rest of the cluster moved under it. The contact and
+    // its cluster root are claimed first, like a merge, so a concurrent write
+    // to the cluster conflicts and is retried.
+    public boolean deleteContact(Long id) {
+        Optional<Contact> found = contactRepository.findActiveById(id);
+        if (found.isEmpty()) {
+            return false;
+        }
+        Contact contact = found.get();
+        List<Contact> seeds = List.of(contact);
+        Map<Long, Long> pendingRoots = contact.getRootPrimaryId() == null ? Map.of()
+                : mergeQueue.pendingRoots(List.of(contact.getRootPrimaryId()));
+        List<Contact> cluster = fetchCluster(seeds, pendingRoots);
+        requireSeedsLoaded(seeds, cluster);
+
+        Contact primaryContact = findPrimaryContact(cluster);
+        Long rootId = primaryContact.getId();
+        claimVersions(rootId, Set.of(id), cluster);
+
+        LocalDateTime now = LocalDateTime.now();
+        contactRepository.softDelete(id, now);
+        Set<Long> changedIds = new HashSet<>();
+        changedIds.add(rootId);
+
+        if (!id.equals(rootId)) {
+            contactRepository.relinkChildren(id, rootId, now);
+        } else {
+            List<Contact> remaining = cluster.stream()
+                    .filter(c -> !c.getId().equals(id))
+                    .collect(Collectors.toList());
+            if (!remaining.isEmpty()) {
+                Contact successor = findSuccessor(remaining);
+                List<Long> memberIds = remaining.stream()
+                        .filter(c -> c != successor && c.getLinkPrecedence() == Contact.LinkPrecedence.SECONDARY)
+                        .map(Contact::getId)
+                        .collect(Collectors.toList());
+                contactRepository.promoteToPrimary(successor.getId(), now);
+                if (!memberIds.isEmpty()) {
+                    contactRepository.rerootMembers(successor.getId(), id, memberIds, now);
+                }
+                mergeQueue.retarget(id, successor.getId());
+                changedIds.add(successor.getId());
+            }
+        }
+
+        eventPublisher.publishEvent(new ClusterChangedEvent(changedIds));
+        eventPublisher.publishEvent(new ContactDeletedEvent(id, contact.getEmail(), contact.getPhoneNumber()));
+        return true;
     }
 
-    private IdentifyResponse createNewPrimaryContact(IdentifyRequest request) {
-        Contact newContact = new Contact(request.getEmail(), request.getPhoneNumber(),
-                Contact.LinkPrecedence.PRIMARY);
-        Contact savedContact = contactRepository.save(newContact);
+    // The oldest remaining primary of a cluster that was never consolidated,
+    // otherwise the oldest remaining contact
+    static Contact findSuccessor(List<Contact> remaining) {
+        Comparator<Contact> oldestFirst = Comparator.comparing(Contact::getCreatedAt)
+                .thenComparing(Contact::getId);
+        return remaining.stream()
+                .filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY)
+                .min(oldestFirst)
+                .orElseGet(() -> Collections.min(remaining, oldestFirst));
+    }
 
-        List<String> emails = savedContact.getEmail() != null ? Arrays.asList(savedContact.getEmail())
-                : new ArrayList<>();
-        List<String> phoneNumbers = savedContact.getPhoneNumber() != null ? Arrays.asList(savedContact.getPhoneNumber())
-                : new ArrayList<>();
+    // Shared by every identify path
+    static void validate(IdentifyRequest request) {
+        if (!ContactNormalizer.isIdentifiable(request.getEmail(), request.getPhoneNumber())) {
+            throw new IllegalArgumentException("Either email or phone number must be provided");
+        }
+        if (tooLong(request.getEmail()) || tooLong(request.getPhoneNumber())) {
+            throw new IllegalArgumentException(
+                    "Email and phone number must be at most " + Contact.MAX_VALUE_LENGTH + " characters");
+        }
+    }
 
-        return new IdentifyResponse(savedContact.getId(), emails, phoneNumbers, new ArrayList<>());
+    static boolean isValid(IdentifyRequest request) {
+        return request != null && ContactNormalizer.isIdentifiable(request.getEmail(), request.getPhoneNumber())
+                && !tooLong(request.getEmail()) && !tooLong(request.getPhoneNumber());
     }
 
-    private IdentifyResponse processExistingContacts(IdentifyRequest request, List<Contact> existingContacts) {
-        // Find all related contacts (primary and secondary)
-        Set<Contact> allRelatedContacts = findAllRelatedContacts(existingContacts);
+    private static boolean tooLong(String value) {
+        return value != null && value.length() > Contact.MAX_VALUE_LENGTH;
+    }
+
+    // Applies a request to the union of the clusters it matched (empty if it
+    // matched none): creates a primary or a secondary and merges primaries as
+    // needed. New contacts are appended to the given list.
+    private IdentifyResponse resolve(IdentifyRequest request, List<Contact> allRelatedContacts,
+            Map<Long, Long> pendingRoots) {
+        if (allRelatedContacts.isEmpty()) {
+            Contact savedContact = identifyMetrics.phase("create", () -> createNewPrimaryContact(request));
+            allRelatedContacts.add(savedContact);
+            return identifyMetrics.phase("response", () -> buildResponse(savedContact, allRelatedContacts));
+        }
 
         // Determine primary contact
         Contact primaryContact = findPrimaryContact(allRelatedContacts);
 
         // Check if we need to create a new secondary contact
         boolean needsNewSecondary = shouldCreateNewSecondary(request, allRelatedContacts);
+        Set<Long> demotedIds = demotedPrimaryIds(primaryContact.getId(), allRelatedContacts);
+
+        // Writes are decided on the clusters as loaded. Claiming the versions
+        // of the root and of every primary about to be demoted fails if
+        // another writer has changed them since; the transaction is then
+        // rolled back and the caller retries on fresh state. The root's claim
+        // also moves the cluster version the response is tagged with.
+        if (needsNewSecondary || !demotedIds.isEmpty()) {
+            identifyMetrics.phase("claim", () -> claimVersions(primaryContact.getId(), demotedIds,
+                    allRelatedContacts));
+        }
 
         if (needsNewSecondary) {
             Contact newSecondary = new Contact(request.getEmail(), request.getPhoneNumber(),
                     Contact.LinkPrecedence.SECONDARY);
             newSecondary.setLinkedId(primaryContact.getId());
-            contactRepository.save(newSecondary);
-            allRelatedContacts.add(newSecondary);
+            newSecondary.setRootPrimaryId(primaryContact.getId());
+            allRelatedContacts.add(identifyMetrics.phase("create", () -> contactRepository.save(newSecondary)));
+            eventPublisher.publishEvent(new ClusterChangedEvent(Set.of(primaryContact.getId())));
         }
 
-        // Handle contact consolidation if multiple primaries exist
-        handleContactConsolidation(allRelatedContacts);
+        // Handle contact consolidation if multiple primaries exist. The loaded
+        // entities are brought in line with it, so the cluster is not reloaded.
+        identifyMetrics.phase("consolidation",
+                () -> handleContactConsolidation(primaryContact, allRelatedContacts, pendingRoots));
 
-        // Rebuild the related contacts set after potential consolidation
-        allRelatedContacts = findAllRelatedContacts(Arrays.asList(primaryContact));
-        primaryContact = findPrimaryContact(allRelatedContacts);
-
-        return buildResponse(primaryContact, allRelatedContacts);
+        return identifyMetrics.phase("response", () -> buildResponse(primaryContact, allRelatedContacts));
     }
 
-    private Set<Contact> findAllRelatedContacts(List<Contact> seedContacts) {
-        Set<Contact> allContacts = new HashSet<>();
-        Set<Long> processedIds = new HashSet<>();
+    private Contact createNewPrimaryContact(IdentifyRequest request) {
+        Contact newContact = new Contact(request.getEmail(), request.getPhoneNumber(),
+                Contact.LinkPrecedence.PRIMARY);
+        // ContactRootInterceptor stamps the root from the id at persist, so it
+        // goes out with the INSERT and the version stays at its initial value
+        return contactRepository.save(newContact);
+    }
 
+    // Demoted primaries of pending asynchronous merges that touch the seeds'
+    // clusters, mapped to the root their members end up under
+    private Map<Long, Long> pendingRoots(Collection<Contact> seedContacts) {
+        if (!mergeQueue.isActive() || seedContacts.isEmpty()) {
+            return new HashMap<>();
+        }
+        Set<Long> rootIds = new HashSet<>();
         for (Contact contact : seedContacts) {
-            collectRelatedContacts(contact, allContacts, processedIds);
+            if (contact.getRootPrimaryId() != null) {
+                rootIds.add(contact.getRootPrimaryId());
+            }
         }
+        return identifyMetrics.phase("cluster", () -> mergeQueue.pendingRoots(rootIds));
+    }
 
-        return allContacts;
+    private List<Contact> loadCluster(List<Contact> seedContacts, Map<Long, Long> pendingRoots) {
+        return identifyMetrics.phase("cluster", () -> fetchCluster(seedContacts, pendingRoots));
     }
 
-    private void collectRelatedContacts(Contact contact, Set<Contact> allContacts, Set<Long> processedIds) {
-        if (processedIds.contains(contact.getId())) {
-            return;
+    private List<Contact> fetchCluster(List<Contact> seedContacts, Map<Long, Long> pendingRoots) {
+        List<Long> rootIds = seedContacts.stream()
+                .map(Contact::getRootPrimaryId)
+                .distinct()
+                .collect(Collectors.toList());
+
+        // Every contact carries its cluster root, so one indexed equality
+        // query returns the whole cluster. Members of clusters with a pending
+        // merge still carry their old root and are loaded along with it.
+        if (!rootIds.contains(null)) {
+            if (!pendingRoots.isEmpty()) {
+                Set<Long> allRootIds = new HashSet<>(rootIds);
+                allRootIds.addAll(pendingRoots.keySet());
+                allRootIds.addAll(pendingRoots.values());
+                return new ArrayList<>(contactRepository.findByRootPrimaryIdIn(allRootIds));
+            }
+            return new ArrayList<>(contactRepository.findByRootPrimaryIdIn(rootIds));
         }
 
-        processedIds.add(contact.getId());
-        allContacts.add(contact);
+        // Rows written before rootPrimaryId existed (or not yet backfilled) are
+        // resolved by walking linkedId chains instead; consolidation then
+        // stamps the root on them.
+        List<Long> seedIds = seedContacts.stream()
+                .map(Contact::getId)
+                .collect(Collectors.toList());
+
+        List<Long> chainRootIds = contactRepository.findRootIds(seedIds);
+        return new ArrayList<>(contactRepository.findClusterByRootIds(chainRootIds));
+    }
 
-        // Find contacts linked to this one
-        List<Contact> linkedContacts = contactRepository.findByLinkedId(contact.getId());
-        for (Contact linked : linkedContacts) {
-            collectRelatedContacts(linked, allContacts, processedIds);
+    // True when the request adds nothing to a cluster that is already fully
+    // consolidated, so answering it needs no write. Several primaries still
+    // need merging, and unstamped rows still need their root written. One
+    // pass: the cluster is settled when it has a single primary and every
+    // member carries that primary's id as its root. Members waiting on a
+    // pending merge count as carrying the root they are moved to.
+    static boolean isSettled(IdentifyRequest request, List<Contact> cluster) {
+        return isSettled(request, cluster, Map.of());
+    }
+
+    static boolean isSettled(IdentifyRequest request, List<Contact> cluster, Map<Long, Long> pendingRoots) {
+        if (shouldCreateNewSecondary(request, cluster)) {
+            return false;
         }
 
-        // If this is a secondary contact, find its primary
-        if (contact.getLinkedId() != null) {
-            Optional<Contact> primary = contactRepository.findActiveById(contact.getLinkedId());
-            if (primary.isPresent()) {
-                collectRelatedContacts(primary.get(), allContacts, processedIds);
+        Long primaryId = null;
+        Long rootId = effectiveRoot(cluster.get(0), pendingRoots);
+        for (Contact contact : cluster) {
+            if (contact.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY) {
+                if (primaryId != null) {
+                    return false;
+                }
+                primaryId = contact.getId();
+            }
+            if (rootId == null || !rootId.equals(effectiveRoot(contact, pendingRoots))) {
+                return false;
             }
         }
+        return rootId.equals(primaryId);
     }
 
-    private Contact findPrimaryContact(Set<Contact> contacts) {
-        return contacts.stream()
-                .filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY)
-                .min(Comparator.comparing(Contact::getCreatedAt))
-                .orElseThrow(() -> new RuntimeException("No primary contact found"));
+    static Long effectiveRoot(Contact contact, Map<Long, Long> pendingRoots) {
+        Long rootId = contact.getRootPrimaryId();
+        return rootId == null || pendingRoots.isEmpty() ? rootId : pendingRoots.getOrDefault(rootId, rootId);
     }
 
-    private boolean shouldCreateNewSecondary(IdentifyRequest request, Set<Contact> existingContacts) {
-        boolean emailExists = request.getEmail() == null ||
-                existingContacts.stream().anyMatch(c -> request.getEmail().equals(c.getEmail()));
-        boolean phoneExists = request.getPhoneNumber() == null ||
-                existingContacts.stream().anyMatch(c -> request.getPhoneNumber().equals(c.getPhoneNumber()));
+    static Contact findPrimaryContact(List<Contact> contacts) {
+        Contact oldest = null;
+        for (Contact contact : contacts) {
+            if (contact.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY
+                    && (oldest == null || contact.getCreatedAt().isBefore(oldest.getCreatedAt()))) {
+                oldest = contact;
+            }
+        }
+        if (oldest == null) {
+            throw new RuntimeException("No primary contact found");
+        }
+        return oldest;
+    }
+
+    // Compares normalized keys, so another spelling of a known email or phone
+    // number adds nothing to the cluster. A key match is confirmed on the
+    // value, since hashed keys can collide.
+    static boolean shouldCreateNewSecondary(IdentifyRequest request, List<Contact> existingContacts) {
+        String email = ContactNormalizer.normalizeEmail(request.getEmail());
+        String phoneNumber = ContactNormalizer.normalizePhoneNumber(request.getPhoneNumber());
+        Long emailKey = ContactNormalizer.emailKey(request.getEmail());
+        Long phoneKey = ContactNormalizer.phoneKey(request.getPhoneNumber());
+        boolean emailExists = emailKey == null;
+        boolean phoneExists = phoneKey == null;
+        for (int i = 0; i < existingContacts.size() && !(emailExists && phoneExists); i++) {
+            Contact contact = existingContacts.get(i);
+            emailExists |= emailKey != null && emailKey.equals(contact.getEmailKey())
+                    && ContactNormalizer.sameEmail(email, contact.getEmail());
+            phoneExists |= phoneKey != null && phoneKey.equals(contact.getPhoneKey())
+                    && ContactNormalizer.samePhoneNumber(phoneNumber, contact.getPhoneNumber());
+        }
 
         return !(emailExists && phoneExists);
     }
 
-    private void handleContactConsolidation(Set<Contact> allContacts) {
-        List<Contact> primaries = allContacts.stream()
-                .filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY)
-                .sorted(Comparator.comparing(Contact::getCreatedAt))
-                .collect(Collectors.toList());
+    private void handleContactConsolidation(Contact oldestPrimary, List<Contact> allContacts,
+            Map<Long, Long> pendingRoots) {
+        Long rootId = oldestPrimary.getId();
+        boolean async = mergeQueue.isEnabled();
+
+        // Newer primaries are converted to secondaries of the oldest one. In
+        // asynchronous mode their members are left for ContactMergeQueue,
+        // which moves them after this transaction; the response and the rest
+        // of the transaction treat them as moved already.
+        Set<Long> demotedIds = demotedPrimaryIds(rootId, allContacts);
+
+        if (!demotedIds.isEmpty()) {
+            LocalDateTime now = LocalDateTime.now();
+            contactRepository.demotePrimaries(rootId, demotedIds, now);
+            if (async) {
+                mergeQueue.record(rootId, demotedIds, pendingRoots, now);
+            } else {
+                contactRepository.reparentClusters(rootId, demotedIds, now);
+            }
+
+            Set<Long> changedIds = new HashSet<>(demotedIds);
+            changedIds.add(rootId);
+            eventPublisher.publishEvent(new ClusterChangedEvent(changedIds));
+
+            // The bulk statements cleared the persistence context, so the loaded
+            // contacts are detached; mirror the statements on them for the response
+            applyMerge(rootId, demotedIds, allContacts, now);
+        }
 
-        if (primaries.size() > 1) {
-            Contact oldestPrimary = primaries.get(0);
-
-            // Convert newer primaries to secondaries
-            for (int i = 1; i < primaries.size(); i++) {
-                Contact primaryToConvert = primaries.get(i);
-                primaryToConvert.setLinkPrecedence(Contact.LinkPrecedence.SECONDARY);
-                primaryToConvert.setLinkedId(oldestPrimary.getId());
-                primaryToConvert.setUpdatedAt(LocalDateTime.now());
-                contactRepository.save(primaryToConvert);
-
-                // Update contacts that were linked to the converted primary
-                List<Contact> childContacts = contactRepository.findByLinkedId(primaryToConvert.getId());
-                for (Contact child : childContacts) {
-                    child.setLinkedId(oldestPrimary.getId());
-                    child.setUpdatedAt(LocalDateTime.now());
-                    contactRepository.save(child);
+        // Rows that predate rootPrimaryId get stamped the first time their
+        // cluster is touched. Synchronous merges also stamp members of
+        // pending merges left over from asynchronous mode.
+        List<Long> unstampedIds = unstampedIds(rootId, allContacts, async ? pendingRoots : Map.of());
+
+        if (!unstampedIds.isEmpty()) {
+            contactRepository.assignRootPrimaryId(rootId, unstampedIds);
+            Set<Long> stamped = new HashSet<>(unstampedIds);
+            for (Contact contact : allContacts) {
+                contact.setRootPrimaryId(rootId);
+                if (stamped.contains(contact.getId())) {
+                    contact.setVersion(contact.getVersion() + 1);
                 }
             }
         }
     }
 
-    private IdentifyResponse buildResponse(Contact primaryContact, Set<Contact> allContacts) {
-        List<String> emails = allContacts.stream()
-                .map(Contact::getEmail)
-                .filter(Objects::nonNull)
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+    // Seeds and their clusters are read by separate statements. A merge
+    // committed in between moves a seed into a cluster that was not loaded,
+    // and writing on the partial cluster would lose that merge.
+    static void requireSeedsLoaded(Collection<Contact> seeds, List<Contact> cluster) {
+        Long missingId = missingSeedId(seeds, cluster);
+        if (missingId != null) {
+            throw new ObjectOptimisticLockingFailureException(Contact.class, missingId);
+        }
+    }
 
-        List<String> phoneNumbers = allContacts.stream()
-                .map(Contact::getPhoneNumber)
-                .filter(Objects::nonNull)
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+    static boolean seedsLoaded(Collection<Contact> seeds, List<Contact> cluster) {
+        return missingSeedId(seeds, cluster) == null;
+    }
+
+    private static Long missingSeedId(Collection<Contact> seeds, List<Contact> cluster) {
+        Set<Long> loadedIds = new HashSet<>(cluster.size() * 2);
+        for (Contact contact : cluster) {
+            loadedIds.add(contact.getId());
+        }
+        for (Contact seed : seeds) {
+            if (!loadedIds.contains(seed.getId())) {
+                return seed.getId();
+            }
+        }
+        return null;
+    }
+
+    // In id order, so two merges claiming overlapping rows cannot deadlock.
+    // Pending writes of this transaction are flushed first: an update of a
+    // contact written earlier in the same chunk moves its version at flush,
+    // and claiming the version read before that would conflict with itself.
+    private void claimVersions(Long rootId, Set<Long> demotedIds, List<Contact> allContacts) {
+        contactRepository.flush();
+        List<Contact> claimed = new ArrayList<>(demotedIds.size() + 1);
+        for (Contact contact : allContacts) {
+            if (contact.getId().equals(rootId) || demotedIds.contains(contact.getId())) {
+                claimed.add(contact);
+            }
+        }
+        claimed.sort(Comparator.comparing(Contact::getId));
+        for (Contact contact : claimed) {
+            if (contactRepository.claimVersion(contact.getId(), contact.getVersion()) == 0) {
+                throw new ObjectOptimisticLockingFailureException(Contact.class, contact.getId());
+            }
+            contact.setVersion(contact.getVersion() + 1);
+        }
+    }
+
+    static Set<Long> demotedPrimaryIds(Long rootId, List<Contact> contacts) {
+        return contacts.stream()
+                .filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY)
+                .map(Contact::getId)
+                .filter(id -> !id.equals(rootId))
+                .collect(Collectors.toSet());
+    }
+
+    // Applies what demotePrimaries and reparentClusters did in the database to
+    // the loaded contacts, versions included, so a later merge in the same
+    // chunk claims the versions the rows have now
+    static void applyMerge(Long rootId, Set<Long> demotedIds, List<Contact> contacts, LocalDateTime now) {
+        for (Contact contact : contacts) {
+            if (demotedIds.contains(contact.getId())) {
+                contact.setLinkPrecedence(Contact.LinkPrecedence.SECONDARY);
+                contact.setLinkedId(rootId);
+                contact.setRootPrimaryId(rootId);
+                contact.setUpdatedAt(now);
+                contact.setVersion(contact.getVersion() + 1);
+            } else if (demotedIds.contains(contact.getRootPrimaryId())
+                    || demotedIds.contains(contact.getLinkedId())) {
+                if (demotedIds.contains(contact.getLinkedId())) {
+                    contact.setLinkedId(rootId);
+                }
+                contact.setRootPrimaryId(rootId);
+                contact.setUpdatedAt(now);
+                contact.setVersion(contact.getVersion() + 1);
+            }
+        }
+    }
 
-        List<Long> secondaryContactIds = allContacts.stream()
-                .filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.SECONDARY)
+    static List<Long> unstampedIds(Long rootId, List<Contact> contacts, Map<Long, Long> pendingRoots) {
+        return contacts.stream()
+                .filter(c -> !rootId.equals(effectiveRoot(c, pendingRoots)))
                 .map(Contact::getId)
-                .sorted()
                 .collect(Collectors.toList());
+    }
 
-        return new IdentifyResponse(primaryContact.getId(), emails, phoneNumbers, secondaryContactIds);
+    static IdentifyResponse buildResponse(Contact primaryContact, List<Contact> allContacts) {
+        ClusterResponseBuilder builder = new ClusterResponseBuilder(allContacts.size());
+        for (Contact contact : allContacts) {
+            builder.add(contact.getEmail(), contact.getPhoneNumber(),
+                    contact.getLinkPrecedence() == Contact.LinkPrecedence.SECONDARY, contact.getId());
+        }
+        IdentifyResponse response = builder.build(primaryContact.getId());
+        response.setClusterVersion(primaryContact.getVersion());
+        return response;
     }
 }
@@ -0,0 +1,110 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Single flight for identify: concurrent requests whose email and phone
+// normalize to the same pair share one computation. The first request of a
+// pair runs it; requests for the pair that arrive while it is in flight wait
+// for it and get the same response, or the same exception. Normalized
+// spellings of one pair add nothing to each other's cluster, so the shared
+// answer is the one each would have got after the other.
+//
+// The pair is released before the result is published, so a request that
+// arrives after the computation finished runs its own and never gets an
+// answer older than itself.
+@Component
+public class IdentifyCoalescer {
+
+    private final boolean enabled;
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter leaders;
+    private final Counter followers;
+
+    public IdentifyCoalescer(@Value("${contact.identify.coalesce:true}") boolean enabled,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.leaders = Counter.builder("identify.coalescing.requests").tag("role", "leader")
+                .description("Identify requests that computed a response themselves").register(meterRegistry);
+        this.followers = Counter.builder("identify.coalescing.requests").tag("role", "follower")
+                .description("Identify requests that shared the response of an identical request in flight")
+                .register(meterRegistry);
+        Gauge.builder("identify.coalescing.in.flight", inFlight, Map::size)
+                .description("Distinct email/phone pairs being identified right now")
+                .register(meterRegistry);
+    }
+
+    public <T> Shared<T> run(IdentifyRequest request, Supplier<T> work) {
+        String key = enabled ? keyOf(request) : null;
+        if (key == null) {
+            return new Shared<>(work.get(), false);
+        }
+
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            followers.increment();
+            return new Shared<>(awaitResult(leader), true);
+        }
+
+        leaders.increment();
+        T value;
+        try {
+            value = work.get();
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        inFlight.remove(key, flight);
+        flight.complete(value);
+        return new Shared<>(value, false);
+    }
+
+    // The value a run returned, and whether it came from another request
+    public record Shared<T>(T value, boolean coalesced) {
+    }
+
+    // Null when either value does not normalize or both are missing; such
+    // requests run alone
+    static String keyOf(IdentifyRequest request) {
+        if (request.getEmail() == null && request.getPhoneNumber() == null) {
+            return null;
+        }
+        String email = ContactNormalizer.normalizeEmail(request.getEmail());
+        String phoneNumber = ContactNormalizer.normalizePhoneNumber(request.getPhoneNumber());
+        if ((request.getEmail() != null && email == null)
+                || (request.getPhoneNumber() != null && phoneNumber == null)) {
+            return null;
+        }
+        return (email != null ? email : "") + '\n' + (phoneNumber != null ? phoneNumber : "");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T awaitResult(CompletableFuture<Object> flight) {
+        try {
+            return (T) flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.metrics.IdentifyMetrics;
+import com.moonrider.zamazon.metrics.IdentifyTrace;
+import com.moonrider.zamazon.repository.ContactRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+// Entry point for identify requests. Known email/phone pairs are answered
+// from the cluster cache once the primary's version confirms the entry, then
+// by a read-only lookup that takes no lock.
+// Only requests that create or merge contacts run ContactService.identify
+// under the in-process identity lock, so concurrent requests for the same
+// email/phone queue here instead of holding a connection while they wait on
+// the database row lock. The lock is held until the transaction has committed.
+// A write that conflicts with another writer is retried (ConflictRetry).
+// Identical requests in flight at the same time past the cache share one
+// read or write (IdentifyCoalescer).
+//
+// With contact.graph.enabled every request is answered by the in-memory
+// IdentityGraph instead, which persists its changes behind the response.
+@Service
+public class IdentifyCoordinator {
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private IdentityLockManager identityLockManager;
+
+    @Autowired
+    private IdentityClusterCache identityClusterCache;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ConflictRetry conflictRetry;
+
+    @Autowired
+    private IdentifyCoalescer identifyCoalescer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private IdentifyMetrics identifyMetrics;
+
+    @Autowired(required = false)
+    private IdentityGraph identityGraph;
+
+    private Counter cachePath;
+    private Counter readPath;
+    private Counter writePath;
+    private Counter coalescedPath;
+    private Counter graphPath;
+
+    @PostConstruct
+    void registerMetrics() {
+        cachePath = pathCounter("cache");
+        readPath = pathCounter("read");
+        writePath = pathCounter("write");
+        coalescedPath = pathCounter("coalesced");
+        if (identityGraph != null) {
+            graphPath = pathCounter("graph");
+        }
+    }
+
+    public IdentifyResponse identify(IdentifyRequest request) {
+        IdentifyTrace trace = IdentifyTrace.start();
+        String path = "cache";
+        String outcome = "error";
+        try {
+            if (identityGraph != null) {
+                path = "graph";
+                graphPath.increment();
+                IdentifyResponse response = identityGraph.identify(request);
+                outcome = "success";
+                return response;
+            }
+
+            Optional<IdentifyResponse> cached = identityClusterCache.lookup(request)
+                    .filter(response -> identityClusterCache.isCurrent(response,
+                            contactRepository.findPrimaryVersion(response.getPrimaryContactId()).orElse(null)));
+            if (cached.isPresent()) {
+                cachePath.increment();
+                outcome = "success";
+                return cached.get();
+            }
+
+            path = "coalesced";
+            IdentifyCoalescer.Shared<Answer> shared = identifyCoalescer.run(request, () -> resolve(request));
+            if (shared.coalesced()) {
+                coalescedPath.increment();
+            } else {
+                path = shared.value().path();
+            }
+            outcome = "success";
+            return shared.value().response();
+        } catch (IllegalArgumentException e) {
+            outcome = "invalid";
+            throw e;
+        } finally {
+            trace.finish();
+            identifyMetrics.recordRequest(trace, path, outcome);
+        }
+    }
+
+    // Answers a request the cache could not, through the read path if it adds
+    // nothing and the write path otherwise
+    private Answer resolve(IdentifyRequest request) {
+        long generation = identityClusterCache.generation();
+
+        Optional<IdentifyResponse> known = contactService.findKnown(request);
+        if (known.isPresent()) {
+            readPath.increment();
+            identityClusterCache.put(known.get(), generation);
+            return new Answer(known.get(), "read");
+        }
+
+        writePath.increment();
+        // A conflict is retried after the locks are released, so others
+        // can finish while this request backs off
+        IdentifyResponse response = conflictRetry.run(() -> identityLockManager.withLock(
+                request.getEmail(), request.getPhoneNumber(), () -> contactService.identify(request)));
+        identityClusterCache.put(response, generation);
+        return new Answer(response, "write");
+    }
+
+    private record Answer(IdentifyResponse response, String path) {
+    }
+
+    private Counter pathCounter(String path) {
+        return Counter.builder("identify.requests")
+                .description("Identify requests by the path that answered them")
+                .tag("path", path)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,122 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.repository.ContactRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+// Entity tags for identify responses: "<primaryId>-<clusterVersion>-<pair>",
+// where pair is a hash of the normalized email/phone pair the response
+// answered. Every change to a cluster bumps the version of its primary (the
+// claims in ContactService and ReactiveContactService; the identity graph
+// writer bumps it outright), and replaying a pair against an unchanged
+// cluster adds nothing to it. So a conditional request for the same pair
+// whose tag still names the primary's current version gets the response it
+// already has, and checking that is one primary key lookup instead of a
+// cluster load. A deleted or demoted primary matches no tag.
+//
+// The pair is hashed so the tag does not carry the phone number, which is its
+// own key, in the clear.
+@Component
+public class IdentifyETags {
+
+    private final ContactRepository contactRepository;
+
+    private final boolean enabled;
+
+    private final Counter notModified;
+    private final Counter modified;
+
+    public IdentifyETags(ContactRepository contactRepository,
+            @Value("${contact.identify.etags:true}") boolean enabled, MeterRegistry meterRegistry) {
+        this.contactRepository = contactRepository;
+        this.enabled = enabled;
+        this.notModified = Counter.builder("identify.conditional.requests").tag("result", "not_modified")
+                .description("Conditional identify requests answered 304 from the cluster version")
+                .register(meterRegistry);
+        this.modified = Counter.builder("identify.conditional.requests").tag("result", "modified")
+                .description("Conditional identify requests whose cluster had changed")
+                .register(meterRegistry);
+    }
+
+    // Null when tags are off, the response has no cluster version, or the
+    // request has a value that does not normalize
+    public String tagOf(IdentifyRequest request, IdentifyResponse response) {
+        if (!enabled || response.getClusterVersion() == null) {
+            return null;
+        }
+        String pair = pairOf(request);
+        if (pair == null) {
+            return null;
+        }
+        return "\"" + response.getPrimaryContactId() + "-" + response.getClusterVersion() + "-" + pair + "\"";
+    }
+
+    // The tag of an If-None-Match header that is still current for the
+    // request, if any
+    public Optional<String> findCurrent(IdentifyRequest request, String ifNoneMatch) {
+        if (!enabled || ifNoneMatch == null) {
+            return Optional.empty();
+        }
+        String pair = pairOf(request);
+        if (pair == null) {
+            return Optional.empty();
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (isCurrent(tag, pair)) {
+                notModified.increment();
+                return Optional.of(tag);
+            }
+        }
+        modified.increment();
+        return Optional.empty();
+    }
+
+    private boolean isCurrent(String tag, String pair) {
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+            return false;
+        }
+        String[] parts = tag.substring(1, tag.length() - 1).split("-");
+        if (parts.length != 3 || !parts[2].equals(pair)) {
+            return false;
+        }
+        long primaryId;
+        long version;
+        try {
+            primaryId = Long.parseLong(parts[0]);
+            version = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return contactRepository.findPrimaryVersion(primaryId).filter(v -> v == version).isPresent();
+    }
+
+    // First 8 bytes of a SHA-256 of the pair as IdentifyCoalescer keys it
+    static String pairOf(IdentifyRequest request) {
+        String key = IdentifyCoalescer.keyOf(request);
+        if (key == null) {
+            return null;
+        }
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+        return HexFormat.of().formatHex(digest, 0, Long.BYTES);
+    }
+}
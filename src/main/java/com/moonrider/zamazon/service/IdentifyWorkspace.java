@@ -0,0 +1,124 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.util.ContactNormalizer;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+// In-memory view of the clusters loaded for a batch chunk, indexed by email
+// and phone key and matched the same way findByEmailOrPhoneNumber does.
+// Requests in the chunk are resolved against it one after the other, and each
+// resolved cluster is put back so later requests see earlier ones' writes.
+class IdentifyWorkspace {
+
+    private final Map<Long, List<Contact>> clustersByRoot = new HashMap<>();
+    private final Map<Long, Set<Long>> rootsByEmailKey = new HashMap<>();
+    private final Map<Long, Set<Long>> rootsByPhoneKey = new HashMap<>();
+
+    // Members of a cluster with a pending merge are grouped under the root
+    // they are moved to (see ContactMergeQueue)
+    IdentifyWorkspace(List<Contact> contacts, Map<Long, Long> pendingRoots) {
+        Map<Long, Contact> byId = new HashMap<>();
+        contacts.forEach(c -> byId.put(c.getId(), c));
+
+        for (Contact contact : contacts) {
+            Long rootId = rootOf(contact, byId, pendingRoots);
+            clustersByRoot.computeIfAbsent(rootId, id -> new ArrayList<>()).add(contact);
+            index(contact, rootId);
+        }
+    }
+
+    // Union of the clusters the request's email or phone belongs to, as a new
+    // mutable list; empty when the request matches nothing.
+    Match match(IdentifyRequest request) {
+        Set<Long> roots = new LinkedHashSet<>();
+        Long emailKey = ContactNormalizer.emailKey(request.getEmail());
+        if (emailKey != null) {
+            String email = ContactNormalizer.normalizeEmail(request.getEmail());
+            for (Long root : rootsByEmailKey.getOrDefault(emailKey, Set.of())) {
+                if (holds(root, c -> emailKey.equals(c.getEmailKey())
+                        && ContactNormalizer.sameEmail(email, c.getEmail()))) {
+                    roots.add(root);
+                }
+            }
+        }
+        Long phoneKey = ContactNormalizer.phoneKey(request.getPhoneNumber());
+        if (phoneKey != null) {
+            String phoneNumber = ContactNormalizer.normalizePhoneNumber(request.getPhoneNumber());
+            for (Long root : rootsByPhoneKey.getOrDefault(phoneKey, Set.of())) {
+                if (holds(root, c -> phoneKey.equals(c.getPhoneKey())
+                        && ContactNormalizer.samePhoneNumber(phoneNumber, c.getPhoneNumber()))) {
+                    roots.add(root);
+                }
+            }
+        }
+
+        List<Contact> contacts = new ArrayList<>();
+        roots.forEach(root -> contacts.addAll(clustersByRoot.get(root)));
+        return new Match(roots, contacts);
+    }
+
+    // Replaces the matched clusters with the resolved one under its root.
+    void replace(Match match, Long rootId) {
+        match.roots.forEach(clustersByRoot::remove);
+        clustersByRoot.put(rootId, match.contacts);
+
+        for (Contact contact : match.contacts) {
+            unindex(contact, match.roots);
+            index(contact, rootId);
+        }
+    }
+
+    // Confirms a key hit on the values, since hashed keys can collide
+    private boolean holds(Long rootId, Predicate<Contact> matches) {
+        for (Contact contact : clustersByRoot.get(rootId)) {
+            if (matches.test(contact)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void index(Contact contact, Long rootId) {
+        if (contact.getEmailKey() != null) {
+            rootsByEmailKey.computeIfAbsent(contact.getEmailKey(), e -> new HashSet<>()).add(rootId);
+        }
+        if (contact.getPhoneKey() != null) {
+            rootsByPhoneKey.computeIfAbsent(contact.getPhoneKey(), p -> new HashSet<>()).add(rootId);
+        }
+    }
+
+    private void unindex(Contact contact, Set<Long> roots) {
+        rootsByEmailKey.getOrDefault(contact.getEmailKey(), new HashSet<>()).removeAll(roots);
+        rootsByPhoneKey.getOrDefault(contact.getPhoneKey(), new HashSet<>()).removeAll(roots);
+    }
+
+    // Rows that predate rootPrimaryId are grouped by walking their linkedId
+    // chain; loadCluster returns whole clusters, so every parent is present.
+    private static Long rootOf(Contact contact, Map<Long, Contact> byId, Map<Long, Long> pendingRoots) {
+        Contact current = contact;
+        while (current.getRootPrimaryId() == null && current.getLinkedId() != null
+                && byId.containsKey(current.getLinkedId())) {
+            current = byId.get(current.getLinkedId());
+        }
+        Long rootId = ContactService.effectiveRoot(current, pendingRoots);
+        return rootId != null ? rootId : current.getId();
+    }
+
+    static class Match {
+
+        private final Set<Long> roots;
+        private final List<Contact> contacts;
+
+        Match(Set<Long> roots, List<Contact> contacts) {
+            this.roots = roots;
+            this.contacts = contacts;
+        }
+
+        List<Contact> getContacts() {
+            return contacts;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.moonrider.zamazon.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import com.moonrider.zamazon.event.ClusterChangedEvent;
+import com.moonrider.zamazon.event.ContactDeletedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded read-through cache of resolved clusters. Emails and phone numbers
+// map to the id of the primary they resolved to, and each primary id maps to
+// its last IdentifyResponse. A request whose email and phone both resolve to
+// the same cached cluster adds no new information, so its answer is that
+// cluster's response.
+//
+// Entries are dropped when a committed identify changes a cluster. Responses
+// computed concurrently with such a change are not cached. Deleting a contact
+// also drops its email and phone number, which may have left the cluster.
+//
+// Those events only reach the instance that made the change, so a response
+// found by lookup is served only once isCurrent has confirmed it against the
+// primary's version in the table, which every change to the cluster bumps.
+// That is a single primary key read instead of the cluster load a miss costs.
+@Component
+public class IdentityClusterCache {
+
+    private final boolean enabled;
+
+    private final Cache<String, Long> primaryIdByKey;
+
+    private final Cache<Long, IdentifyResponse> responseByPrimaryId;
+
+    // Bumped on every invalidation; see put
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter stale;
+
+    public IdentityClusterCache(@Value("${contact.cache.enabled:true}") boolean enabled,
+            @Value("${contact.cache.max-keys:200000}") long maxKeys,
+            @Value("${contact.cache.max-weight:1000000}") long maxWeight,
+            @Value("${contact.cache.ttl:10m}") Duration ttl,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.primaryIdByKey = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        // Weighted by list sizes so a few huge clusters cannot hold the heap
+        this.responseByPrimaryId = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((Long id, IdentifyResponse r) -> 1 + r.getEmails().size()
+                        + r.getPhoneNumbers().size() + r.getSecondaryContactIds().size())
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, primaryIdByKey, "identity.cluster.keys");
+        CaffeineCacheMetrics.monitor(meterRegistry, responseByPrimaryId, "identity.cluster.responses");
+        this.hits = Counter.builder("identity.cluster.cache.requests").tag("result", "hit")
+                .description("Identify requests answered from the cluster cache").register(meterRegistry);
+        this.misses = Counter.builder("identity.cluster.cache.requests").tag("result", "miss")
+                .description("Identify requests that had to read the database").register(meterRegistry);
+        this.stale = Counter.builder("identity.cluster.cache.requests").tag("result", "stale")
+                .description("Cached clusters found changed in the database since they were cached")
+                .register(meterRegistry);
+    }
+
+    // The cached response for the request, to be confirmed with isCurrent
+    // before it is served
+    public Optional<IdentifyResponse> lookup(IdentifyRequest request) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        Long primaryId = resolve(request);
+        IdentifyResponse response = primaryId != null ? responseByPrimaryId.getIfPresent(primaryId) : null;
+
+        if (response == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        return Optional.of(response);
+    }
+
+    // Whether a response from lookup still describes the cluster, given the
+    // current version of its primary; null when that is no longer an active
+    // primary. A stale response is dropped, so the next lookup misses.
+    public boolean isCurrent(IdentifyResponse response, Long primaryVersion) {
+        if (primaryVersion != null && primaryVersion.equals(response.getClusterVersion())) {
+            hits.increment();
+            return true;
+        }
+        stale.increment();
+        responseByPrimaryId.invalidate(response.getPrimaryContactId());
+        return false;
+    }
+
+    // Capture before computing a response and hand back to put
+    public long generation() {
+        return generation.get();
+    }
+
+    // Caches a response computed when the cache was at the given generation.
+    // Inside a transaction the entry is only added after commit, so a rolled
+    // back identify never becomes visible.
+    public void put(IdentifyResponse response, long observedGeneration) {
+        if (!enabled || response == null) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    store(response, observedGeneration);
+                }
+            });
+        } else {
+            store(response, observedGeneration);
+        }
+    }
+
+    public void invalidate(Collection<Long> primaryIds) {
+        generation.incrementAndGet();
+        responseByPrimaryId.invalidateAll(primaryIds);
+    }
+
+    @TransactionalEventListener
+    public void onClusterChanged(ClusterChangedEvent event) {
+        invalidate(event.getPrimaryIds());
+    }
+
+    @TransactionalEventListener
+    public void onContactDeleted(ContactDeletedEvent event) {
+        generation.incrementAndGet();
+        forget(event.getEmail(), event.getPhoneNumber());
+    }
+
+    private Long resolve(IdentifyRequest request) {
+        String emailKey = emailKey(request.getEmail());
+        String phoneKey = phoneKey(request.getPhoneNumber());
+        Long byEmail = emailKey != null ? primaryIdByKey.getIfPresent(emailKey) : null;
+        Long byPhone = phoneKey != null ? primaryIdByKey.getIfPresent(phoneKey) : null;
+
+        if ((emailKey != null && byEmail == null) || (phoneKey != null && byPhone == null)) {
+            return null;
+        }
+        if (byEmail != null && byPhone != null && !byEmail.equals(byPhone)) {
+            // Known to two different clusters: the request merges them
+            return null;
+        }
+        return byEmail != null ? byEmail : byPhone;
+    }
+
+    private void store(IdentifyResponse response, long observedGeneration) {
+        Long primaryId = response.getPrimaryContactId();
+        responseByPrimaryId.put(primaryId, response);
+        for (String email : response.getEmails()) {
+            String key = emailKey(email);
+            if (key != null) {
+                primaryIdByKey.put(key, primaryId);
+            }
+        }
+        for (String phoneNumber : response.getPhoneNumbers()) {
+            String key = phoneKey(phoneNumber);
+            if (key != null) {
+                primaryIdByKey.put(key, primaryId);
+            }
+        }
+
+        // A cluster changed while this response was being computed, so it may
+        // already be stale; drop it rather than serve it. Its keys go too, in
+        // case the change was a deletion that took one of them out.
+        if (generation.get() != observedGeneration) {
+            responseByPrimaryId.invalidate(primaryId);
+            response.getEmails().forEach(email -> forget(email, null));
+            response.getPhoneNumbers().forEach(phoneNumber -> forget(null, phoneNumber));
+        }
+    }
+
+    private void forget(String email, String phoneNumber) {
+        String emailKey = emailKey(email);
+        if (emailKey != null) {
+            primaryIdByKey.invalidate(emailKey);
+        }
+        String phoneKey = phoneKey(phoneNumber);
+        if (phoneKey != null) {
+            primaryIdByKey.invalidate(phoneKey);
+        }
+    }
+
+    // Keyed on the normalized values, matching what identify treats as the
+    // same email or phone number; null when the value normalizes to nothing
+    private static String emailKey(String email) {
+        String normalized = ContactNormalizer.normalizeEmail(email);
+        return normalized != null ? "e:" + normalized : null;
+    }
+
+    private static String phoneKey(String phoneNumber) {
+        String normalized = ContactNormalizer.normalizePhoneNumber(phoneNumber);
+        return normalized != null ? "p:" + normalized : null;
+    }
+}
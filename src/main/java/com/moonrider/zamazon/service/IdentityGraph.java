@@ -0,0 +1,389 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.dto.IdentityGraphReport;
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-process identity engine: a disjoint-set forest over all active contacts,
+// in which contacts sharing an email or phone number are in the same set.
+// Each set is a cluster and its root is the oldest contact (by creation time,
+// then id), which is the cluster's primary; every other member is one of its
+// secondaries. identify is answered from memory with the same result as
+// ContactService, and its changes are persisted through IdentityGraphWriter.
+//
+// Contacts are indexed by the canonical email and phone number of
+// ContactNormalizer, which match the same spellings as the table lookup;
+// unlike the hashed keys they cannot collide. Contacts live in slots of
+// parallel primitive arrays. parent holds the union-find forest (compressed
+// on every find) and next threads each set's members into a ring, so two
+// sets are joined in constant time and a cluster is listed without touching
+// other contacts.
+//
+// The graph is rebuilt from the table on startup and assumes it is the only
+// writer of contacts afterwards: enable it on a single instance, and not
+// together with the reactive profile, whose identify does not go through it.
+@Component
+@ConditionalOnProperty(name = "contact.graph.enabled", havingValue = "true")
+@DependsOn("contactSequenceInitializer")
+public class IdentityGraph {
+
+    private static final Logger log = LoggerFactory.getLogger(IdentityGraph.class);
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    @Autowired
+    private IdentityGraphWriter writer;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Guards every field below; held for microseconds per identify
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long[] ids;
+    private long[] createdAtMicros;
+    private int[] parent;
+    private int[] next;
+    private String[] emails;
+    private String[] phoneNumbers;
+    private int size;
+
+    // Any one slot holding the value; its set is the value's cluster
+    private final Map<String, Integer> slotByEmail = new HashMap<>();
+    private final Map<String, Integer> slotByPhoneNumber = new HashMap<>();
+
+    // Current block of contacts_seq ids, as pooled-lo hands them out
+    private String nextValueSql;
+    private long nextId;
+    private long idLimit;
+
+    @PostConstruct
+    void initialize() {
+        nextValueSql = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect()
+                .getSequenceSupport().getSequenceNextValString(Contact.ID_SEQUENCE);
+        Gauge.builder("identity.graph.contacts", this, graph -> graph.size)
+                .description("Contacts held by the identity graph")
+                .register(meterRegistry);
+        rebuild();
+    }
+
+    public IdentifyResponse identify(IdentifyRequest request) {
+        ContactService.validate(request);
+        // Pushes back on callers while the table is not keeping up
+        writer.awaitCapacity();
+
+        String email = request.getEmail();
+        String phoneNumber = request.getPhoneNumber();
+        String canonicalEmail = ContactNormalizer.normalizeEmail(email);
+        String canonicalPhoneNumber = ContactNormalizer.normalizePhoneNumber(phoneNumber);
+
+        lock.lock();
+        try {
+            Integer emailSlot = canonicalEmail != null ? slotByEmail.get(canonicalEmail) : null;
+            Integer phoneSlot = canonicalPhoneNumber != null ? slotByPhoneNumber.get(canonicalPhoneNumber) : null;
+
+            if (emailSlot == null && phoneSlot == null) {
+                int slot = addContact(email, phoneNumber, -1);
+                return responseOf(slot);
+            }
+
+            int emailRoot = emailSlot != null ? find(emailSlot) : -1;
+            int phoneRoot = phoneSlot != null ? find(phoneSlot) : -1;
+
+            if (emailRoot >= 0 && phoneRoot >= 0 && emailRoot != phoneRoot) {
+                // Both keys are known, so nothing is added; the newer primary
+                // and its cluster move under the older one
+                int root = union(emailRoot, phoneRoot);
+                int demoted = root == emailRoot ? phoneRoot : emailRoot;
+                writer.append(new IdentityGraphWriter.Merge(ids[root], List.of(ids[demoted]), now()));
+                return responseOf(root);
+            }
+
+            int root = emailRoot >= 0 ? emailRoot : phoneRoot;
+            if ((canonicalEmail != null && emailSlot == null) || (canonicalPhoneNumber != null && phoneSlot == null)) {
+                addContact(email, phoneNumber, root);
+            }
+            return responseOf(root);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Replaces the graph with the active contacts of the table. Contacts are
+    // joined along rootPrimaryId (linkedId for rows without one) and along
+    // shared keys; where the table disagrees with the result, the writes that
+    // consolidate it are queued.
+    public void rebuild() {
+        lock.lock();
+        try {
+            long startTime = System.nanoTime();
+            writer.flush();
+            clear();
+
+            jdbcTemplate.query(streaming("SELECT id, email, phone_number, created_at FROM contacts "
+                    + "WHERE deleted_at IS NULL ORDER BY id"), (RowCallbackHandler) rs -> {
+                        int slot = newSlot(rs.getLong("id"), rs.getTimestamp("created_at").toLocalDateTime());
+                        emails[slot] = rs.getString("email");
+                        phoneNumbers[slot] = rs.getString("phone_number");
+                    });
+
+            jdbcTemplate.query(streaming("SELECT id, linked_id, root_primary_id FROM contacts "
+                    + "WHERE deleted_at IS NULL ORDER BY id"), (RowCallbackHandler) rs -> {
+                        long root = rs.getLong("root_primary_id");
+                        long parentId = rs.wasNull() ? rs.getLong("linked_id") : root;
+                        int parentSlot = slotOf(parentId);
+                        if (parentSlot >= 0) {
+                            union(find(slotOf(rs.getLong("id"))), find(parentSlot));
+                        }
+                    });
+
+            for (int slot = 0; slot < size; slot++) {
+                index(slot);
+            }
+
+            int clusters = 0;
+            for (int slot = 0; slot < size; slot++) {
+                if (parent[slot] == slot) {
+                    clusters++;
+                }
+            }
+
+            IdentityGraphReport report = compare(true);
+            log.info("Identity graph rebuilt: {} contacts in {} clusters in {}ms, {} roots and {} precedences "
+                    + "queued for correction", size, clusters, (System.nanoTime() - startTime) / 1_000_000,
+                    report.getMismatchedRoots(), report.getMismatchedPrecedence());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Compares the graph with the table once every queued write has been
+    // applied. identify waits while the check runs.
+    public IdentityGraphReport checkConsistency() {
+        lock.lock();
+        try {
+            writer.flush();
+            return compare(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private IdentityGraphReport compare(boolean queueCorrections) {
+        BitSet seen = new BitSet(size);
+        long[] counts = new long[4];
+        Map<Integer, List<Long>> demotedByRoot = new HashMap<>();
+        Map<Integer, List<Long>> unstampedByRoot = new HashMap<>();
+        // Clusters whose oldest contact is a secondary in the table; the table
+        // picked a different primary than the graph would, so they are only
+        // reported
+        Set<Integer> anomalousRoots = new HashSet<>();
+
+        jdbcTemplate.query(streaming("SELECT id, root_primary_id, link_precedence FROM contacts "
+                + "WHERE deleted_at IS NULL ORDER BY id"), (RowCallbackHandler) rs -> {
+                    counts[0]++;
+                    long id = rs.getLong("id");
+                    int slot = slotOf(id);
+                    if (slot < 0) {
+                        counts[1]++;
+                        return;
+                    }
+                    seen.set(slot);
+
+                    int root = find(slot);
+                    boolean primary = Contact.LinkPrecedence.PRIMARY.name().equals(rs.getString("link_precedence"));
+                    if (primary && root != slot) {
+                        // A newer primary of a cluster joined by a shared key;
+                        // the merge also moves its root
+                        counts[3]++;
+                        demotedByRoot.computeIfAbsent(root, r -> new ArrayList<>()).add(id);
+                        return;
+                    }
+                    if (!primary && root == slot) {
+                        counts[3]++;
+                        anomalousRoots.add(root);
+                    }
+                    long rootPrimaryId = rs.getLong("root_primary_id");
+                    if (rs.wasNull() || rootPrimaryId != ids[root]) {
+                        counts[2]++;
+                        unstampedByRoot.computeIfAbsent(root, r -> new ArrayList<>()).add(id);
+                    }
+                });
+
+        if (queueCorrections) {
+            LocalDateTime now = now();
+            demotedByRoot.keySet().removeAll(anomalousRoots);
+            unstampedByRoot.keySet().removeAll(anomalousRoots);
+            demotedByRoot.forEach((root, demoted) ->
+                    writer.append(new IdentityGraphWriter.Merge(ids[root], demoted, now)));
+            unstampedByRoot.forEach((root, unstamped) ->
+                    writer.append(new IdentityGraphWriter.Stamp(ids[root], unstamped)));
+        }
+
+        return new IdentityGraphReport(size, counts[0], counts[1], size - seen.cardinality(), counts[2],
+                counts[3], writer.getFailed());
+    }
+
+    // Adds a contact to the cluster rooted at root, or as a new primary when
+    // root is -1, and queues its insert
+    private int addContact(String email, String phoneNumber, int root) {
+        LocalDateTime now = now();
+        int slot = newSlot(allocateId(), now);
+        emails[slot] = email;
+        phoneNumbers[slot] = phoneNumber;
+
+        if (root >= 0) {
+            union(root, slot);
+        }
+        index(slot);
+
+        long rootId = ids[find(slot)];
+        writer.append(new IdentityGraphWriter.Insert(ids[slot], email, phoneNumber, root >= 0 ? rootId : null,
+                root >= 0 ? Contact.LinkPrecedence.SECONDARY : Contact.LinkPrecedence.PRIMARY, rootId, now));
+        return slot;
+    }
+
+    // Registers the slot's values; a value already held by another cluster
+    // joins the two
+    private void index(int slot) {
+        String canonicalEmail = ContactNormalizer.normalizeEmail(emails[slot]);
+        if (canonicalEmail != null) {
+            Integer other = slotByEmail.putIfAbsent(canonicalEmail, slot);
+            if (other != null) {
+                union(find(other), find(slot));
+            }
+        }
+        String canonicalPhoneNumber = ContactNormalizer.normalizePhoneNumber(phoneNumbers[slot]);
+        if (canonicalPhoneNumber != null) {
+            Integer other = slotByPhoneNumber.putIfAbsent(canonicalPhoneNumber, slot);
+            if (other != null) {
+                union(find(other), find(slot));
+            }
+        }
+    }
+
+    private int find(int slot) {
+        while (parent[slot] != slot) {
+            parent[slot] = parent[parent[slot]];
+            slot = parent[slot];
+        }
+        return slot;
+    }
+
+    // Joins two roots under the older one and returns it
+    private int union(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        boolean aOlder = createdAtMicros[a] != createdAtMicros[b]
+                ? createdAtMicros[a] < createdAtMicros[b]
+                : ids[a] < ids[b];
+        int root = aOlder ? a : b;
+        int child = aOlder ? b : a;
+
+        parent[child] = root;
+        int rootNext = next[root];
+        next[root] = next[child];
+        next[child] = rootNext;
+        return root;
+    }
+
+    private IdentifyResponse responseOf(int slot) {
+        int root = find(slot);
+        ClusterResponseBuilder builder = new ClusterResponseBuilder(16);
+        int member = root;
+        do {
+            builder.add(emails[member], phoneNumbers[member], member != root, ids[member]);
+            member = next[member];
+        } while (member != root);
+        return builder.build(ids[root]);
+    }
+
+    // Slots are appended in id order (the table is read ordered by id, and
+    // new ids come from an increasing sequence), so ids can be binary searched
+    private int slotOf(long id) {
+        int slot = Arrays.binarySearch(ids, 0, size, id);
+        return slot >= 0 ? slot : -1;
+    }
+
+    private int newSlot(long id, LocalDateTime createdAt) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            createdAtMicros = Arrays.copyOf(createdAtMicros, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            next = Arrays.copyOf(next, capacity);
+            emails = Arrays.copyOf(emails, capacity);
+            phoneNumbers = Arrays.copyOf(phoneNumbers, capacity);
+        }
+        int slot = size++;
+        ids[slot] = id;
+        createdAtMicros[slot] = createdAt.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + createdAt.getNano() / 1_000;
+        parent[slot] = slot;
+        next[slot] = slot;
+        return slot;
+    }
+
+    private void clear() {
+        ids = new long[INITIAL_CAPACITY];
+        createdAtMicros = new long[INITIAL_CAPACITY];
+        parent = new int[INITIAL_CAPACITY];
+        next = new int[INITIAL_CAPACITY];
+        emails = new String[INITIAL_CAPACITY];
+        phoneNumbers = new String[INITIAL_CAPACITY];
+        size = 0;
+        slotByEmail.clear();
+        slotByPhoneNumber.clear();
+    }
+
+    private long allocateId() {
+        if (nextId == idLimit) {
+            nextId = jdbcTemplate.queryForObject(nextValueSql, Long.class);
+            idLimit = nextId + Contact.ID_ALLOCATION_SIZE;
+        }
+        return nextId++;
+    }
+
+    private PreparedStatementCreator streaming(String sql) {
+        return connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setFetchSize(1000);
+            return statement;
+        };
+    }
+
+    // Truncated to what the created_at column keeps, so ordering in memory
+    // and in the table agree
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+    }
+}
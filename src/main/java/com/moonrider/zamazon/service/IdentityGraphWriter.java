@@ -0,0 +1,320 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.exception.IdentityGraphUnavailableException;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import com.moonrider.zamazon.repository.ContactRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Ordered write-behind log of the identity graph. Changes are applied to the
+// contacts table by one writer thread, in the order the graph made them,
+// several per transaction. A batch that fails is retried with exponential
+// backoff up to contact.graph.write-max-backoff until it succeeds; nothing is
+// dropped while the application runs. The queue is bounded, and identify
+// waits in awaitCapacity, before the graph lock, while it is full or while a
+// batch is failing, and is turned away once contact.graph.write-admission-
+// timeout has passed. Writes still queued when the process dies, or failing
+// when it shuts down, are lost, so the graph is only as durable as the last
+// drained batch; IdentityGraph.checkConsistency shows what they left out.
+@Component
+@ConditionalOnProperty(name = "contact.graph.enabled", havingValue = "true")
+public class IdentityGraphWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(IdentityGraphWriter.class);
+
+    private static final long BASE_BACKOFF_MILLIS = 100;
+
+    private static final String INSERT_SQL = "INSERT INTO contacts (id, email, phone_number, email_key, phone_key, "
+            + "linked_id, link_precedence, root_primary_id, created_at, updated_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Writes applied per transaction
+    @Value("${contact.graph.write-batch-size:500}")
+    private int batchSize = 500;
+
+    @Value("${contact.graph.write-queue-capacity:100000}")
+    private int queueCapacity = 100000;
+
+    @Value("${contact.graph.write-max-backoff:10s}")
+    private Duration maxBackoff = Duration.ofSeconds(10);
+
+    @Value("${contact.graph.write-admission-timeout:1s}")
+    private Duration admissionTimeout = Duration.ofSeconds(1);
+
+    private BlockingQueue<Write> queue;
+
+    // Queued plus in flight; flush waits for it to reach zero
+    private final AtomicLong pending = new AtomicLong();
+    private final ReentrantLock drainedLock = new ReentrantLock();
+    private final Condition drained = drainedLock.newCondition();
+
+    private final AtomicLong failed = new AtomicLong();
+    private Counter failedWrites;
+    private Counter retriedBatches;
+    private Counter rejectedRequests;
+
+    // Whether the last attempt to apply a batch succeeded
+    private volatile boolean healthy = true;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    sealed interface Write permits Insert, Merge, Stamp {
+    }
+
+    record Insert(long id, String email, String phoneNumber, Long linkedId, Contact.LinkPrecedence linkPrecedence,
+            long rootPrimaryId, LocalDateTime createdAt) implements Write {
+    }
+
+    // Demotes the given primaries under the root and moves their clusters along
+    record Merge(long rootId, Collection<Long> demotedIds, LocalDateTime now) implements Write {
+    }
+
+    // Sets the root on contacts whose rootPrimaryId disagrees with the graph
+    record Stamp(long rootId, Collection<Long> ids) implements Write {
+    }
+
+    @PostConstruct
+    void start() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        failedWrites = Counter.builder("identity.graph.writes.failed")
+                .description("Graph changes still failing when the write-behind log shut down")
+                .register(meterRegistry);
+        retriedBatches = Counter.builder("identity.graph.writes.retries")
+                .description("Write-behind batches retried after a failed transaction")
+                .register(meterRegistry);
+        rejectedRequests = Counter.builder("identity.graph.writes.rejected")
+                .description("Identify requests turned away while the write-behind log was full or failing")
+                .register(meterRegistry);
+        Gauge.builder("identity.graph.writes.pending", pending, AtomicLong::get)
+                .description("Graph changes not yet written to the contacts table")
+                .register(meterRegistry);
+
+        running = true;
+        thread = new Thread(this::run, "identity-graph-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Drains what is left before the datasource goes away; a batch that
+    // still fails is given up on at this point
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        thread.join();
+        List<Write> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            apply(rest);
+        }
+    }
+
+    // Waits until the queue has room and the last batch went through. Called
+    // before the graph lock is taken, so a caller turned away has changed
+    // nothing.
+    public void awaitCapacity() {
+        long deadline = System.nanoTime() + admissionTimeout.toNanos();
+        drainedLock.lock();
+        try {
+            while (!healthy || queue.remainingCapacity() == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejectedRequests.increment();
+                    throw new IdentityGraphUnavailableException(healthy
+                            ? "Identity graph write-behind log is full"
+                            : "Identity graph writes are failing");
+                }
+                drained.awaitNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(BASE_BACKOFF_MILLIS)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the identity graph writer", e);
+        } finally {
+            drainedLock.unlock();
+        }
+    }
+
+    // Blocks while the queue is full; callers that went through awaitCapacity
+    // only wait here when others filled it in between
+    public void append(Write write) {
+        pending.incrementAndGet();
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            pending.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted appending to the identity graph writer", e);
+        }
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public long getPending() {
+        return pending.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    // Blocks until every write appended so far has been applied, which takes
+    // as long as the table stays unreachable
+    public void flush() {
+        drainedLock.lock();
+        try {
+            while (pending.get() > 0) {
+                drained.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the identity graph writer", e);
+        } finally {
+            drainedLock.unlock();
+        }
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                apply(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void apply(List<Write> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> write(batch));
+                healthy = true;
+                break;
+            } catch (RuntimeException e) {
+                healthy = false;
+                if (!running) {
+                    log.error("Giving up on {} identity graph writes at shutdown after {} attempts",
+                            batch.size(), attempt, e);
+                    failed.addAndGet(batch.size());
+                    failedWrites.increment(batch.size());
+                    break;
+                }
+                long delay = Math.min(BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16), maxBackoff.toMillis());
+                log.warn("Identity graph write failed, retrying in {}ms (attempt {})", delay, attempt, e);
+                retriedBatches.increment();
+                backOff(delay);
+            }
+        }
+
+        pending.addAndGet(-batch.size());
+        drainedLock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            drainedLock.unlock();
+        }
+    }
+
+    // Consecutive inserts go out as one JDBC batch; merges and stamps keep
+    // their place in the order. The roots of clusters that gained contacts
+    // get their version bumped once per batch, as a claim would have done.
+    private void write(List<Write> batch) {
+        List<Object[]> inserts = new ArrayList<>();
+        Set<Long> changedRootIds = new HashSet<>();
+        for (Write write : batch) {
+            if (write instanceof Insert insert) {
+                if (insert.linkPrecedence() == Contact.LinkPrecedence.SECONDARY) {
+                    changedRootIds.add(insert.rootPrimaryId());
+                }
+                Timestamp createdAt = Timestamp.valueOf(insert.createdAt());
+                inserts.add(new Object[] { insert.id(), insert.email(), insert.phoneNumber(),
+                        ContactNormalizer.emailKey(insert.email()), ContactNormalizer.phoneKey(insert.phoneNumber()),
+                        insert.linkedId(), insert.linkPrecedence().name(), insert.rootPrimaryId(), createdAt,
+                        createdAt });
+                continue;
+            }
+
+            insertAll(inserts);
+            if (write instanceof Merge merge) {
+                contactRepository.demotePrimaries(merge.rootId(), merge.demotedIds(), merge.now());
+                contactRepository.reparentClusters(merge.rootId(), merge.demotedIds(), merge.now());
+                changedRootIds.add(merge.rootId());
+            } else if (write instanceof Stamp stamp) {
+                contactRepository.assignRootPrimaryId(stamp.rootId(), stamp.ids());
+            }
+        }
+        insertAll(inserts);
+        if (!changedRootIds.isEmpty()) {
+            contactRepository.bumpVersions(changedRootIds);
+        }
+    }
+
+    private void insertAll(List<Object[]> inserts) {
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, inserts);
+            inserts.clear();
+        }
+    }
+
+    // Sleeps in short steps, so shutdown does not wait out a long backoff
+    private void backOff(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            while (running && System.currentTimeMillis() < deadline) {
+                Thread.sleep(Math.min(BASE_BACKOFF_MILLIS, Math.max(deadline - System.currentTimeMillis(), 1)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.entity.IdentityLock;
+import com.moonrider.zamazon.repository.IdentityLockRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Creates the identity_locks rows before the application accepts traffic;
+// a stripe without a row would silently go unlocked.
+@Component
+public class IdentityLockInitializer {
+
+    @Autowired
+    private IdentityLockRepository identityLockRepository;
+
+    @Autowired
+    private IdentityLockManager identityLockManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void createStripes() {
+        int stripes = identityLockManager.getStripeCount();
+        if (identityLockRepository.countStripes() >= stripes) {
+            return;
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Set<Integer> existing = new HashSet<>();
+                identityLockRepository.findAll().forEach(l -> existing.add(l.getStripe()));
+
+                List<IdentityLock> missing = new ArrayList<>();
+                for (int i = 0; i < stripes; i++) {
+                    if (!existing.contains(i)) {
+                        missing.add(new IdentityLock(i));
+                    }
+                }
+                identityLockRepository.saveAll(missing);
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Another instance created the stripes at the same time
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.util.ContactNormalizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Striped locks keyed on the normalized email and phone of a request. Two
+// requests that could touch the same identity always share at least one
+// stripe, while unrelated identities almost never contend.
+@Component
+public class IdentityLockManager {
+
+    private final ReentrantLock[] locks;
+
+    @Value("${contact.identify.lock-timeout-ms:5000}")
+    private long lockTimeoutMs = 5000;
+
+    public IdentityLockManager(@Value("${contact.identify.lock-stripes:256}") int stripes) {
+        this.locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public int getStripeCount() {
+        return locks.length;
+    }
+
+    // Sorted, distinct stripes for the request; acquiring in this order keeps
+    // concurrent holders of overlapping stripes from deadlocking.
+    public List<Integer> stripesFor(String email, String phoneNumber) {
+        return Arrays.stream(new Integer[] { stripeOf("email:", ContactNormalizer.normalizeEmail(email)),
+                stripeOf("phone:", ContactNormalizer.normalizePhoneNumber(phoneNumber)) })
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .toList();
+    }
+
+    public <T> T withLock(String email, String phoneNumber, Supplier<T> work) {
+        return withStripes(stripesFor(email, phoneNumber), work);
+    }
+
+    // Holds every given stripe while the work runs, as batch identify does for
+    // a whole chunk. Stripes must be sorted and distinct, like stripesFor's.
+    public <T> T withStripes(List<Integer> stripes, Supplier<T> work) {
+        int acquired = 0;
+        try {
+            for (int stripe : stripes) {
+                if (!locks[stripe].tryLock(lockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    throw new CannotAcquireLockException("Timed out waiting for identity lock stripe " + stripe);
+                }
+                acquired++;
+            }
+            return work.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CannotAcquireLockException("Interrupted waiting for identity lock", e);
+        } finally {
+            for (int i = acquired - 1; i >= 0; i--) {
+                locks[stripes.get(i)].unlock();
+            }
+        }
+    }
+
+    private Integer stripeOf(String namespace, String value) {
+        if (value == null) {
+            return null;
+        }
+        return Math.floorMod((namespace + value).hashCode(), locks.length);
+    }
+}
@@ -0,0 +1,97 @@
+package com.moonrider.zamazon.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Reads UTF-8 lines from a file through a FileChannel in 64 KiB blocks and
+// keeps the byte offset of the next line, so a reader can later be
+// positioned right after the last line that was processed. '\n' never occurs
+// inside a multi-byte UTF-8 sequence, so lines are split on bytes and only
+// decoded once complete. A line longer than MAX_LINE_BYTES is cut short and
+// flagged, which keeps memory bounded whatever the file holds.
+class ImportLineReader implements Closeable {
+
+    static final int MAX_LINE_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    private byte[] line = new byte[256];
+    private boolean truncated;
+    private long offset;
+
+    ImportLineReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.flip();
+    }
+
+    // Next line without its line terminator, or null at the end of the file
+    String readLine() throws IOException {
+        int length = 0;
+        long consumed = 0;
+        truncated = false;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read <= 0) {
+                    if (consumed == 0) {
+                        return null;
+                    }
+                    offset += consumed;
+                    return decode(length);
+                }
+            }
+
+            byte b = buffer.get();
+            consumed++;
+            if (b == '\n') {
+                offset += consumed;
+                return decode(length);
+            }
+            if (length == MAX_LINE_BYTES) {
+                truncated = true;
+                continue;
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, Math.min(length * 2, MAX_LINE_BYTES));
+            }
+            line[length++] = b;
+        }
+    }
+
+    // Whether the line last returned was longer than MAX_LINE_BYTES
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    // Offset of the line readLine returns next
+    long offset() {
+        return offset;
+    }
+
+    void seek(long position) throws IOException {
+        channel.position(position);
+        buffer.clear().flip();
+        offset = position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String decode(int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,300 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.metrics.IdentifyMetrics;
+import com.moonrider.zamazon.repository.ReactiveContactRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// The identify flow of IdentifyCoordinator and ContactService as a reactive
+// pipeline over R2DBC, for the reactive profile: cluster cache, then a
+// read-only lookup that takes no lock, then the stripe-locked write. Cluster
+// decisions and response assembly are ContactService's own, so both stacks
+// answer a request identically.
+//
+// Writers of the same identity are serialized by the identity_locks row
+// locks alone; the in-process ReentrantLocks of the servlet path belong to a
+// thread and cannot be held across an asynchronous pipeline. Stripes do not
+// cover clusters joined through another stripe's identity, so writes claim
+// versions as ContactService does, and a write that loses is rerun by
+// ConflictRetry.
+//
+// Merges are always applied synchronously here, but merges left pending by
+// the servlet path's asynchronous mode (ContactMergeQueue) are read through
+// as there: clusters are loaded with the members of their pending merges, and
+// a write stamps those members with their final root.
+@Service
+@Profile("reactive")
+public class ReactiveContactService {
+
+    private final ReactiveContactRepository contactRepository;
+    private final IdentityLockManager identityLockManager;
+    private final IdentityClusterCache identityClusterCache;
+    private final ConflictRetry conflictRetry;
+    private final ContactMergeQueue mergeQueue;
+
+    private final TransactionalOperator readTransaction;
+    private final TransactionalOperator writeTransaction;
+
+    private final Counter cachePath;
+    private final Counter readPath;
+    private final Counter writePath;
+    private final IdentifyMetrics identifyMetrics;
+
+    // The transaction manager is deliberately not a bean: a second
+    // TransactionManager would make @Transactional ambiguous for the JPA side
+    public ReactiveContactService(ReactiveContactRepository contactRepository,
+            IdentityLockManager identityLockManager, IdentityClusterCache identityClusterCache,
+            ConflictRetry conflictRetry, ContactMergeQueue mergeQueue, ConnectionFactory connectionFactory,
+            MeterRegistry meterRegistry, IdentifyMetrics identifyMetrics) {
+        this.contactRepository = contactRepository;
+        this.identityLockManager = identityLockManager;
+        this.identityClusterCache = identityClusterCache;
+        this.conflictRetry = conflictRetry;
+        this.mergeQueue = mergeQueue;
+
+        R2dbcTransactionManager transactionManager = new R2dbcTransactionManager(connectionFactory);
+        DefaultTransactionDefinition readOnly = new DefaultTransactionDefinition();
+        readOnly.setReadOnly(true);
+        this.readTransaction = TransactionalOperator.create(transactionManager, readOnly);
+        this.writeTransaction = TransactionalOperator.create(transactionManager);
+
+        this.cachePath = pathCounter(meterRegistry, "cache");
+        this.readPath = pathCounter(meterRegistry, "read");
+        this.writePath = pathCounter(meterRegistry, "write");
+        this.identifyMetrics = identifyMetrics;
+    }
+
+    public Mono<IdentifyResponse> identify(IdentifyRequest request) {
+        return Mono.defer(() -> {
+            ContactService.validate(request);
+
+            long generation = identityClusterCache.generation();
+            return Mono.justOrEmpty(identityClusterCache.lookup(request))
+                    .filterWhen(cached -> contactRepository.findPrimaryVersion(cached.getPrimaryContactId())
+                            .map(Optional::of)
+                            .defaultIfEmpty(Optional.empty())
+                            .map(version -> identityClusterCache.isCurrent(cached, version.orElse(null))))
+                    .doOnNext(response -> cachePath.increment())
+                    .switchIfEmpty(Mono.defer(() -> findKnown(request)
+                            .doOnNext(response -> readPath.increment())
+                            .switchIfEmpty(Mono.defer(() -> {
+                                writePath.increment();
+                                return conflictRetry.run(Mono.defer(() -> write(request)));
+                            }))
+                            .doOnNext(response -> identityClusterCache.put(response, generation))));
+        });
+    }
+
+    // See ContactService.findKnown: empty unless the request adds nothing to
+    // a settled cluster
+    private Mono<IdentifyResponse> findKnown(IdentifyRequest request) {
+        return contactRepository.findByEmailOrPhoneNumber(request.getEmail(), request.getPhoneNumber())
+                .collectList()
+                .filter(existingContacts -> !existingContacts.isEmpty())
+                .flatMap(existingContacts -> pendingRoots(existingContacts)
+                        .flatMap(pendingRoots -> loadCluster(existingContacts, pendingRoots)
+                                .filter(cluster -> ContactService.seedsLoaded(existingContacts, cluster)
+                                        && ContactService.isSettled(request, cluster, pendingRoots))))
+                .map(cluster -> ContactService.buildResponse(ContactService.findPrimaryContact(cluster), cluster))
+                .as(readTransaction::transactional);
+    }
+
+    // Lock, lookup, load and resolve in one transaction, as ContactService.identify.
+    // A conflict fails the transaction, and the caller reruns it from the lock.
+    // Clusters changed by the request are dropped from the cache once it has
+    // committed; there is no thread-bound transaction for a
+    // @TransactionalEventListener to wait for.
+    private Mono<IdentifyResponse> write(IdentifyRequest request) {
+        Set<Long> changedIds = ConcurrentHashMap.newKeySet();
+        return contactRepository.lockStripes(
+                        identityLockManager.stripesFor(request.getEmail(), request.getPhoneNumber()))
+                .thenMany(contactRepository.findByEmailOrPhoneNumber(request.getEmail(), request.getPhoneNumber()))
+                .collectList()
+                .flatMap(existingContacts -> existingContacts.isEmpty()
+                        ? Mono.<List<Contact>>just(new ArrayList<>())
+                        : pendingRoots(existingContacts)
+                                .flatMap(pendingRoots -> loadCluster(existingContacts, pendingRoots))
+                                .doOnNext(cluster -> ContactService.requireSeedsLoaded(existingContacts, cluster)))
+                .flatMap(cluster -> resolve(request, cluster, changedIds))
+                .as(writeTransaction::transactional)
+                .doOnSuccess(response -> {
+                    if (!changedIds.isEmpty()) {
+                        identityClusterCache.invalidate(changedIds);
+                    }
+                });
+    }
+
+    // See ContactService.resolve
+    private Mono<IdentifyResponse> resolve(IdentifyRequest request, List<Contact> cluster, Set<Long> changedIds) {
+        if (cluster.isEmpty()) {
+            Contact newContact = new Contact(request.getEmail(), request.getPhoneNumber(),
+                    Contact.LinkPrecedence.PRIMARY);
+            return contactRepository.nextId()
+                    .flatMap(id -> {
+                        newContact.setId(id);
+                        newContact.setRootPrimaryId(id);
+                        return contactRepository.insert(newContact);
+                    })
+                    .map(saved -> ContactService.buildResponse(saved, List.of(saved)));
+        }
+
+        Contact primaryContact = ContactService.findPrimaryContact(cluster);
+        boolean needsNewSecondary = ContactService.shouldCreateNewSecondary(request, cluster);
+        Set<Long> demotedIds = ContactService.demotedPrimaryIds(primaryContact.getId(), cluster);
+
+        // See ContactService.claimVersions; the root's claim also moves the
+        // cluster version
+        Mono<Void> claim = needsNewSecondary || !demotedIds.isEmpty()
+                ? claimVersions(primaryContact.getId(), demotedIds, cluster)
+                : Mono.empty();
+
+        Mono<Void> secondary = Mono.empty();
+        if (needsNewSecondary) {
+            Contact newSecondary = new Contact(request.getEmail(), request.getPhoneNumber(),
+                    Contact.LinkPrecedence.SECONDARY);
+            newSecondary.setLinkedId(primaryContact.getId());
+            newSecondary.setRootPrimaryId(primaryContact.getId());
+            secondary = contactRepository.nextId()
+                    .flatMap(id -> {
+                        newSecondary.setId(id);
+                        return contactRepository.insert(newSecondary);
+                    })
+                    .doOnNext(saved -> {
+                        cluster.add(saved);
+                        changedIds.add(primaryContact.getId());
+                    })
+                    .then();
+        }
+
+        return claim
+                .then(secondary)
+                .then(Mono.defer(() -> consolidate(primaryContact, cluster, changedIds)))
+                .then(Mono.fromSupplier(() -> ContactService.buildResponse(primaryContact, cluster)));
+    }
+
+    // In id order, so two merges claiming overlapping rows cannot deadlock
+    private Mono<Void> claimVersions(Long rootId, Set<Long> demotedIds, List<Contact> cluster) {
+        List<Contact> claimed = cluster.stream()
+                .filter(c -> c.getId().equals(rootId) || demotedIds.contains(c.getId()))
+                .sorted(Comparator.comparing(Contact::getId))
+                .collect(Collectors.toList());
+        return Flux.fromIterable(claimed)
+                .concatMap(contact -> contactRepository.claimVersion(contact.getId(), contact.getVersion())
+                        .flatMap(updated -> updated == 0
+                                ? Mono.<Long>error(new ObjectOptimisticLockingFailureException(Contact.class,
+                                        contact.getId()))
+                                : Mono.just(updated))
+                        .doOnNext(updated -> contact.setVersion(contact.getVersion() + 1)))
+                .then();
+    }
+
+    // See ContactService.handleContactConsolidation
+    private Mono<Void> consolidate(Contact oldestPrimary, List<Contact> cluster, Set<Long> changedIds) {
+        Long rootId = oldestPrimary.getId();
+        Set<Long> demotedIds = ContactService.demotedPrimaryIds(rootId, cluster);
+
+        Mono<Void> merge = Mono.empty();
+        if (!demotedIds.isEmpty()) {
+            LocalDateTime now = LocalDateTime.now();
+            merge = contactRepository.demotePrimaries(rootId, demotedIds, now)
+                    .then(contactRepository.reparentClusters(rootId, demotedIds, now))
+                    .doOnNext(updated -> {
+                        changedIds.addAll(demotedIds);
+                        changedIds.add(rootId);
+                        ContactService.applyMerge(rootId, demotedIds, cluster, now);
+                    })
+                    .then();
+        }
+
+        return merge.then(Mono.defer(() -> {
+            List<Long> unstampedIds = ContactService.unstampedIds(rootId, cluster, Map.of());
+            if (unstampedIds.isEmpty()) {
+                return Mono.empty();
+            }
+            return contactRepository.assignRootPrimaryId(rootId, unstampedIds)
+                    .doOnNext(updated -> cluster.forEach(c -> c.setRootPrimaryId(rootId)))
+                    .then();
+        }));
+    }
+
+    // See ContactMergeQueue.pendingRoots: follows the pending merges touching
+    // the seeds' roots, one round of intents per step
+    private Mono<Map<Long, Long>> pendingRoots(List<Contact> seedContacts) {
+        Set<Long> rootIds = seedContacts.stream()
+                .map(Contact::getRootPrimaryId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (!mergeQueue.isActive() || rootIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+
+        Map<Long, Long> parents = new HashMap<>();
+        Set<Long> seen = new HashSet<>(rootIds);
+        return Mono.just(List.copyOf(rootIds))
+                .expand(frontier -> frontier.isEmpty() ? Mono.empty()
+                        : contactRepository.findMergeIntentsTouching(frontier)
+                                .collectList()
+                                .map(intents -> {
+                                    List<Long> next = new ArrayList<>();
+                                    for (Map.Entry<Long, Long> intent : intents) {
+                                        parents.put(intent.getKey(), intent.getValue());
+                                        if (seen.add(intent.getKey())) {
+                                            next.add(intent.getKey());
+                                        }
+                                        if (seen.add(intent.getValue())) {
+                                            next.add(intent.getValue());
+                                        }
+                                    }
+                                    return next;
+                                }))
+                .then(Mono.fromSupplier(() -> ContactMergeQueue.finalRoots(parents)));
+    }
+
+    // See ContactService.fetchCluster
+    private Mono<List<Contact>> loadCluster(List<Contact> seedContacts, Map<Long, Long> pendingRoots) {
+        List<Long> rootIds = seedContacts.stream()
+                .map(Contact::getRootPrimaryId)
+                .distinct()
+                .collect(Collectors.toList());
+
+        Mono<List<Contact>> cluster;
+        if (!rootIds.contains(null)) {
+            Set<Long> allRootIds = new HashSet<>(rootIds);
+            allRootIds.addAll(pendingRoots.keySet());
+            allRootIds.addAll(pendingRoots.values());
+            cluster = contactRepository.findByRootPrimaryIdIn(allRootIds).collectList();
+        } else {
+            List<Long> seedIds = seedContacts.stream()
+                    .map(Contact::getId)
+                    .collect(Collectors.toList());
+            cluster = contactRepository.findRootIds(seedIds)
+                    .collectList()
+                    .flatMap(chainRootIds -> contactRepository.findClusterByRootIds(chainRootIds).collectList());
+        }
+        return cluster.doOnNext(contacts -> identifyMetrics.recordClusterSize(contacts.size()));
+    }
+
+    private static Counter pathCounter(MeterRegistry meterRegistry, String path) {
+        return Counter.builder("identify.requests")
+                .description("Identify requests by the path that answered them")
+                .tag("path", path)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,137 @@
+package com.moonrider.zamazon.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+// Canonical forms of the two identity keys, so that different spellings of
+// the same email or phone number resolve to the same contacts:
+// - emails are trimmed and lower-cased;
+// - phone numbers are reduced to E.164 style, "+" followed by digits only.
+//   A leading "+" or "00" marks the country code; a number written without
+//   one is taken to be in DEFAULT_COUNTRY_CODE, so "+1 555-0100" and
+//   "555 0100" are the same number. A number written without one that
+//   already starts with DEFAULT_COUNTRY_CODE and is exactly as long as a
+//   full number in that country, "1 (555) 010-0100", is taken to include it.
+//
+// Each canonical form is reduced to a fixed-width 64-bit key that is stored
+// in email_key / phone_key and indexed in place of the raw strings. An E.164
+// number has at most 15 digits, so its key is the number itself. Longer or
+// malformed numbers and all emails use the first 8 bytes of a SHA-256 of the
+// canonical form; hashed phone keys have bit 62 set, so they never meet a
+// numeric one.
+//
+// A hashed key can be shared by two different values, so a row found by key
+// is only a candidate: lookups confirm it against the canonical form of the
+// row's raw value (sameEmail, samePhoneNumber) before linking to it.
+//
+// The keys are persisted, so a change to these rules (including the default
+// country) only takes effect for existing rows once their keys are rewritten.
+// RULES_VERSION is bumped with every such change; ContactBackfillRunner
+// rewrites the keys of all rows on the first start with a new version.
+public final class ContactNormalizer {
+
+    // 2: full-length numbers that already start with the default country code
+    public static final int RULES_VERSION = 2;
+
+    public static final String DEFAULT_COUNTRY_CODE = "1";
+
+    // Digits after the country code in a full DEFAULT_COUNTRY_CODE number
+    private static final int NATIONAL_NUMBER_DIGITS = 10;
+
+    private static final int MAX_E164_DIGITS = 15;
+
+    private static final long HASHED_PHONE_KEY = 1L << 62;
+
+    private ContactNormalizer() {
+    }
+
+    // Null when there is no email left after trimming
+    public static String normalizeEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        String normalized = email.trim().toLowerCase(Locale.ROOT);
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    // Null when the number has no digits at all
+    public static String normalizePhoneNumber(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+        String trimmed = phoneNumber.trim();
+        StringBuilder digits = new StringBuilder(trimmed.length() + DEFAULT_COUNTRY_CODE.length() + 1);
+        for (int i = 0; i < trimmed.length(); i++) {
+            char ch = trimmed.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                digits.append(ch);
+            }
+        }
+
+        if (trimmed.startsWith("+")) {
+            return digits.isEmpty() ? null : digits.insert(0, '+').toString();
+        }
+        if (digits.length() > 2 && digits.charAt(0) == '0' && digits.charAt(1) == '0') {
+            return digits.replace(0, 2, "+").toString();
+        }
+        if (digits.isEmpty()) {
+            return null;
+        }
+        if (digits.length() == DEFAULT_COUNTRY_CODE.length() + NATIONAL_NUMBER_DIGITS
+                && digits.indexOf(DEFAULT_COUNTRY_CODE) == 0) {
+            return digits.insert(0, '+').toString();
+        }
+        return digits.insert(0, DEFAULT_COUNTRY_CODE).insert(0, '+').toString();
+    }
+
+    // Whether a request with these values names anyone: at least one of them
+    // has a canonical form. A value without one gets no key, so it can never
+    // be matched, and a request left with neither would create a new primary
+    // every time it is repeated.
+    public static boolean isIdentifiable(String email, String phoneNumber) {
+        return normalizeEmail(email) != null || normalizePhoneNumber(phoneNumber) != null;
+    }
+
+    // Whether email is the given canonical email; false when that is null
+    public static boolean sameEmail(String normalizedEmail, String email) {
+        return normalizedEmail != null && email != null && normalizedEmail.equals(normalizeEmail(email));
+    }
+
+    public static boolean samePhoneNumber(String normalizedPhoneNumber, String phoneNumber) {
+        return normalizedPhoneNumber != null && phoneNumber != null
+                && normalizedPhoneNumber.equals(normalizePhoneNumber(phoneNumber));
+    }
+
+    public static Long emailKey(String email) {
+        String normalized = normalizeEmail(email);
+        return normalized == null ? null : hash(normalized);
+    }
+
+    public static Long phoneKey(String phoneNumber) {
+        String normalized = normalizePhoneNumber(phoneNumber);
+        if (normalized == null) {
+            return null;
+        }
+        if (normalized.length() <= MAX_E164_DIGITS + 1 && normalized.charAt(1) != '0') {
+            return Long.parseLong(normalized, 1, normalized.length(), 10);
+        }
+        return hash(normalized) & (HASHED_PHONE_KEY - 1) | HASHED_PHONE_KEY;
+    }
+
+    private static long hash(String value) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+        long key = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            key = key << 8 | (digest[i] & 0xFF);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,60 @@
+package com.moonrider.zamazon.config;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.service.IdentifyCoordinator;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The prod profile against its local stand-in, a file-mode H2 database in
+// PostgreSQL mode
+@SpringBootTest(properties = {
+        "DB_URL=jdbc:h2:file:./target/prod-profile/contacts;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;LOCK_TIMEOUT=10000",
+        "DB_USERNAME=sa",
+        "DB_POOL_SIZE=4" })
+@ActiveProfiles("prod")
+
+public class ProdProfileTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private IdentifyCoordinator identifyCoordinator;
+
+    @Value("${spring.jpa.show-sql}")
+    private boolean showSql;
+
+    @Value("${spring.jpa.open-in-view}")
+    private boolean openInView;
+
+    @Test
+    void testFixedPoolWithoutSqlLogging() {
+        HikariDataSource hikari = assertInstanceOf(HikariDataSource.class, dataSource);
+        assertEquals(4, hikari.getMaximumPoolSize());
+        assertEquals(4, hikari.getMinimumIdle());
+        assertEquals(5000, hikari.getConnectionTimeout());
+        assertFalse(showSql);
+        assertFalse(openInView);
+    }
+
+    @Test
+    void testIdentifyAgainstFileDatabase() {
+        // The database outlives the test run, so every run uses new values
+        long run = System.currentTimeMillis();
+        String email = "prod" + run + "@timelab.com";
+        IdentifyResponse primary = identifyCoordinator.identify(new IdentifyRequest(email, "41" + run));
+        IdentifyResponse secondary = identifyCoordinator.identify(new IdentifyRequest(email, "42" + run));
+
+        assertEquals(primary.getPrimaryContactId(), secondary.getPrimaryContactId());
+        assertEquals(1, secondary.getSecondaryContactIds().size());
+    }
+}
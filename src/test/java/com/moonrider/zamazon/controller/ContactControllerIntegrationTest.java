@@ -1,24 +1,43 @@
 package com.moonrider.zamazon.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moonrider.zamazon.dto.BatchIdentifyResult;
+import com.moonrider.zamazon.dto.ClusterPage;
 import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
 import com.moonrider.zamazon.entity.Contact;
 import com.moonrider.zamazon.repository.ContactRepository;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @SpringBootTest
 @AutoConfigureMockMvc
+@AutoConfigureObservability(tracing = false)
 @ActiveProfiles("test")
 @Transactional
 
@@ -33,6 +52,9 @@ public class ContactControllerIntegrationTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private EntityManager entityManager;
+
     @BeforeEach
     void setUp() {
         contactRepository.deleteAll();
@@ -69,6 +91,52 @@ public class ContactControllerIntegrationTest {
                 .andExpect(jsonPath("$.phoneNumbers").isArray());
     }
 
+    @Test
+    void testIdentifyEndpointMatchesOtherSpellings() throws Exception {
+        Contact existing = new Contact("Spelling@TimeLab.com", "+1 555-0100", Contact.LinkPrecedence.PRIMARY);
+        contactRepository.save(existing);
+
+        // Same email and number once normalized: nothing new is stored and the
+        // response keeps the spellings as they were first given
+        IdentifyRequest request = new IdentifyRequest("  spelling@timelab.com", "5550100");
+
+        mockMvc.perform(post("/api/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.primaryContactId").value(existing.getId()))
+                .andExpect(jsonPath("$.emails[0]").value("Spelling@TimeLab.com"))
+                .andExpect(jsonPath("$.phoneNumbers[0]").value("+1 555-0100"))
+                .andExpect(jsonPath("$.secondaryContactIds").isEmpty());
+
+        assertEquals(1, contactRepository.count());
+    }
+
+    @Test
+    void testHashedKeyCollisionIsNotAMatch() throws Exception {
+        // Stands in for another email whose hashed key equals this one's
+        Contact other = new Contact("other@timelab.com", "700901", Contact.LinkPrecedence.PRIMARY);
+        other.setEmailKey(ContactNormalizer.emailKey("collide@timelab.com"));
+        contactRepository.save(other);
+
+        IdentifyResponse created = identify(new IdentifyRequest("collide@timelab.com", "700902"));
+        assertNotEquals(other.getId(), created.getPrimaryContactId());
+        assertEquals(List.of("collide@timelab.com"), created.getEmails());
+
+        // Within a batch chunk too, where the other contact is loaded through
+        // its phone number before the email is matched
+        List<IdentifyRequest> requests = List.of(
+                new IdentifyRequest(null, "700901"),
+                new IdentifyRequest("collide@timelab.com", "700903"));
+        mockMvc.perform(post("/api/identify/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(requests)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].contact.primaryContactId").value(other.getId()))
+                .andExpect(jsonPath("$[1].contact.primaryContactId").value(created.getPrimaryContactId()))
+                .andExpect(jsonPath("$[1].contact.emails.length()").value(1));
+    }
+
     @Test
     void testIdentifyEndpointInvalidRequest() throws Exception {
         IdentifyRequest request = new IdentifyRequest(null, null);
@@ -79,6 +147,39 @@ public class ContactControllerIntegrationTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void testIdentifyEndpointRejectsValuesThatDoNotNormalize() throws Exception {
+        // Neither value has a key, so nothing could ever match the contact
+        // this would create
+        for (IdentifyRequest request : List.of(new IdentifyRequest(null, "abc"),
+                new IdentifyRequest(null, "--"), new IdentifyRequest("   ", null),
+                new IdentifyRequest("   ", "abc"))) {
+            postIdentify(request, null).andExpect(status().isBadRequest());
+        }
+        mockMvc.perform(post("/api/identify/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(new IdentifyRequest(null, "abc")))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(400));
+        assertEquals(0, contactRepository.count());
+
+        // A digitless number next to a usable email is matched on the email
+        IdentifyResponse first = identify(new IdentifyRequest("digitless@timelab.com", "abc"));
+        IdentifyResponse second = identify(new IdentifyRequest("digitless@timelab.com", "abc"));
+        assertEquals(first.getPrimaryContactId(), second.getPrimaryContactId());
+        assertEquals(1, contactRepository.count());
+    }
+
+    @Test
+    void testIdentifyEndpointRejectsValuesLongerThanTheirColumn() throws Exception {
+        String longEmail = "a".repeat(Contact.MAX_VALUE_LENGTH) + "@timelab.com";
+        postIdentify(new IdentifyRequest(longEmail, "700400"), null)
+                .andExpect(status().isBadRequest());
+        postIdentify(new IdentifyRequest("long@timelab.com", "7".repeat(Contact.MAX_VALUE_LENGTH + 1)), null)
+                .andExpect(status().isBadRequest());
+        assertEquals(0, contactRepository.count());
+    }
+
     @Test
     void testIdentifyEndpointMalformedJson() throws Exception {
         mockMvc.perform(post("/api/identify")
@@ -86,4 +187,221 @@ public class ContactControllerIntegrationTest {
                 .content("{invalid json}"))
                 .andExpect(status().isBadRequest());
     }
+
+    @Test
+    void testIdentifyBatchEndpointReportsItemsInOrder() throws Exception {
+        List<IdentifyRequest> requests = List.of(
+                new IdentifyRequest("batch1@timelab.com", "700100"),
+                new IdentifyRequest(null, null),
+                new IdentifyRequest("batch2@timelab.com", "700100"));
+
+        mockMvc.perform(post("/api/identify/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(requests)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].index").value(0))
+                .andExpect(jsonPath("$[0].status").value(200))
+                .andExpect(jsonPath("$[1].status").value(400))
+                .andExpect(jsonPath("$[1].error").value("Invalid request parameters"))
+                .andExpect(jsonPath("$[2].contact.emails.length()").value(2))
+                .andExpect(jsonPath("$[2].contact.secondaryContactIds.length()").value(1));
+    }
+
+    @Test
+    void testIdentifyBatchEndpointStreamsNdjson() throws Exception {
+        String body = objectMapper.writeValueAsString(new IdentifyRequest("stream1@timelab.com", "700200")) + "\n"
+                + "{not json}\n"
+                + "\n"
+                + objectMapper.writeValueAsString(new IdentifyRequest("stream1@timelab.com", null)) + "\n";
+
+        String output = mockMvc.perform(post("/api/identify/batch")
+                .contentType("application/x-ndjson")
+                .content(body))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = output.split("\n");
+        assertEquals(3, lines.length);
+        BatchIdentifyResult first = objectMapper.readValue(lines[0], BatchIdentifyResult.class);
+        BatchIdentifyResult second = objectMapper.readValue(lines[1], BatchIdentifyResult.class);
+        BatchIdentifyResult third = objectMapper.readValue(lines[2], BatchIdentifyResult.class);
+        assertEquals(200, first.getStatus());
+        assertEquals(400, second.getStatus());
+        assertEquals(2, third.getIndex());
+        assertEquals(first.getContact().getPrimaryContactId(), third.getContact().getPrimaryContactId());
+    }
+
+    @Test
+    void testExportStreamsOneLinePerCluster() throws Exception {
+        identify(new IdentifyRequest("export1@timelab.com", "700401"));
+        IdentifyResponse merged = identify(new IdentifyRequest("export1@timelab.com", "700402"));
+        IdentifyResponse single = identify(new IdentifyRequest("export2@timelab.com", "700403"));
+        // The export reads the table over JDBC, past this test's open transaction
+        entityManager.flush();
+
+        String output = mockMvc.perform(get("/api/contacts/export"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = output.split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(merged, objectMapper.readValue(lines[0], IdentifyResponse.class));
+        assertEquals(single, objectMapper.readValue(lines[1], IdentifyResponse.class));
+    }
+
+    @Test
+    void testClusterEndpointListsEveryContact() throws Exception {
+        identify(new IdentifyRequest("read1@timelab.com", "700501"));
+        IdentifyResponse cluster = identify(new IdentifyRequest("read1@timelab.com", "700502"));
+        long primaryId = cluster.getPrimaryContactId();
+        long secondaryId = cluster.getSecondaryContactIds().get(0);
+
+        mockMvc.perform(get("/api/contacts/{primaryId}/cluster", primaryId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.primaryContactId").value(primaryId))
+                .andExpect(jsonPath("$.contacts.length()").value(2))
+                .andExpect(jsonPath("$.contacts[0].linkPrecedence").value("PRIMARY"))
+                .andExpect(jsonPath("$.contacts[1].id").value(secondaryId))
+                .andExpect(jsonPath("$.contacts[1].linkedId").value(primaryId))
+                .andExpect(jsonPath("$.contacts[1].phoneNumber").value("700502"));
+
+        // Only primaries name a cluster
+        mockMvc.perform(get("/api/contacts/{primaryId}/cluster", secondaryId))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testClusterListingPagesByKeyset() throws Exception {
+        identify(new IdentifyRequest("page1@timelab.com", "700601"));
+        IdentifyResponse first = identify(new IdentifyRequest("page1@timelab.com", "700602"));
+        IdentifyResponse second = identify(new IdentifyRequest("page2@timelab.com", "700603"));
+        IdentifyResponse third = identify(new IdentifyRequest("page3@timelab.com", "700604"));
+
+        ClusterPage page = listClusters("/api/clusters?limit=2");
+        assertEquals(List.of(first, second), page.getClusters());
+        assertEquals(second.getPrimaryContactId(), page.getNextAfter());
+
+        ClusterPage last = listClusters("/api/clusters?limit=2&after=" + page.getNextAfter());
+        assertEquals(List.of(third), last.getClusters());
+        assertNull(last.getNextAfter());
+
+        mockMvc.perform(get("/api/clusters?limit=0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testIdentifyEndpointAnswersUnchangedClusterWithNotModified() throws Exception {
+        // The response that creates the primary is tagged with the version
+        // the row was inserted with
+        IdentifyRequest request = new IdentifyRequest("etag@timelab.com", "700801");
+        String etag = postIdentify(request, null)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(etag);
+        postIdentify(request, etag)
+                .andExpect(status().isNotModified());
+
+        // Another spelling of the same pair is the same request
+        postIdentify(new IdentifyRequest("ETag@timelab.com ", "+1 700801"), etag)
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().string(""));
+
+        // A different pair does not match the tag, and its new secondary
+        // moves the cluster version
+        String grown = postIdentify(new IdentifyRequest("etag@timelab.com", "700802"), etag)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.phoneNumbers.length()").value(2))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotEquals(etag, grown);
+
+        String current = postIdentify(request, etag)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.phoneNumbers.length()").value(2))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotEquals(etag, current);
+        postIdentify(request, "\"stale\", " + current)
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void testDeletingPrimaryPromotesOldestContact() throws Exception {
+        long primaryId = identify(new IdentifyRequest("del1@timelab.com", "700701")).getPrimaryContactId();
+        long successorId = identify(new IdentifyRequest("del1@timelab.com", "700702"))
+                .getSecondaryContactIds().get(0);
+        long secondaryId = identify(new IdentifyRequest("del2@timelab.com", "700702"))
+                .getSecondaryContactIds().get(1);
+
+        mockMvc.perform(delete("/api/contacts/{id}", primaryId))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(delete("/api/contacts/{id}", primaryId))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(get("/api/contacts/{primaryId}/cluster", primaryId))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/contacts/{primaryId}/cluster", successorId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.contacts.length()").value(2))
+                .andExpect(jsonPath("$.contacts[0].linkPrecedence").value("PRIMARY"))
+                .andExpect(jsonPath("$.contacts[0].linkedId").doesNotExist())
+                .andExpect(jsonPath("$.contacts[1].id").value(secondaryId))
+                .andExpect(jsonPath("$.contacts[1].linkedId").value(successorId))
+                .andExpect(jsonPath("$.contacts[1].rootPrimaryId").value(successorId));
+
+        // The deleted phone number is no longer part of the cluster
+        IdentifyResponse cluster = identify(new IdentifyRequest("del1@timelab.com", null));
+        assertEquals(successorId, cluster.getPrimaryContactId());
+        assertEquals(List.of("700702"), cluster.getPhoneNumbers());
+
+        mockMvc.perform(delete("/api/contacts/{id}", secondaryId))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/api/contacts/{primaryId}/cluster", successorId))
+                .andExpect(jsonPath("$.contacts.length()").value(1));
+        mockMvc.perform(get("/api/contacts/invariants"))
+                .andExpect(jsonPath("$.healthy").value(true));
+    }
+
+    @Test
+    void testIdentifyMetricsArePublishedForPrometheus() throws Exception {
+        mockMvc.perform(post("/api/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new IdentifyRequest("metrics@timelab.com", "700300"))))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("identify_request_seconds_bucket")))
+                .andExpect(content().string(containsString("identify_phase_seconds_count{phase=\"lookup\"")))
+                .andExpect(content().string(containsString("identify_queries_bucket")))
+                .andExpect(content().string(containsString("identify_cluster_size_bucket")));
+    }
+
+    private ResultActions postIdentify(IdentifyRequest request, String ifNoneMatch) throws Exception {
+        MockHttpServletRequestBuilder post = post("/api/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request));
+        if (ifNoneMatch != null) {
+            post.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return mockMvc.perform(post);
+    }
+
+    private ClusterPage listClusters(String uri) throws Exception {
+        String body = mockMvc.perform(get(uri))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readValue(body, ClusterPage.class);
+    }
+
+    private IdentifyResponse identify(IdentifyRequest request) throws Exception {
+        String body = mockMvc.perform(post("/api/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readValue(body, IdentifyResponse.class);
+    }
 }
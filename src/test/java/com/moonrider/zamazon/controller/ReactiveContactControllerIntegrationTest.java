@@ -0,0 +1,181 @@
+package com.moonrider.zamazon.controller;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.repository.ContactRepository;
+import com.moonrider.zamazon.service.ContactMergeQueue;
+import com.moonrider.zamazon.service.ContactService;
+import com.moonrider.zamazon.service.IdentityClusterCache;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs identify through the reactive profile and checks every answer against
+// what the JPA stack reads back from the same database
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:reactive;LOCK_TIMEOUT=10000",
+        "spring.r2dbc.url=r2dbc:pool:h2:mem:///reactive?options=LOCK_TIMEOUT=10000",
+        "contact.backfill.enabled=false",
+        // Pending merges are set up by hand and the worker only runs when a
+        // merge commits on the JPA side, so they stay pending until drained
+        "contact.merge.async.enabled=true",
+        "contact.merge.async.poll-interval=1h" })
+@ActiveProfiles({ "test", "reactive" })
+
+public class ReactiveContactControllerIntegrationTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private IdentityClusterCache identityClusterCache;
+
+    @Autowired
+    private ContactMergeQueue mergeQueue;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        contactRepository.deleteAll();
+        identityClusterCache.invalidate(List.of());
+    }
+
+    @Test
+    void testNewPrimaryMatchesJpaRead() {
+        IdentifyRequest request = new IdentifyRequest("reactive@timelab.com", "123456789");
+
+        IdentifyResponse response = identify(request);
+
+        assertNotNull(response.getPrimaryContactId());
+        assertEquals(List.of("reactive@timelab.com"), response.getEmails());
+        assertEquals(List.of("123456789"), response.getPhoneNumbers());
+        assertTrue(response.getSecondaryContactIds().isEmpty());
+        assertEquals(Optional.of(response), contactService.findKnown(request));
+
+        Contact saved = contactRepository.findById(response.getPrimaryContactId()).orElseThrow();
+        assertEquals(saved.getId(), saved.getRootPrimaryId());
+    }
+
+    @Test
+    void testSecondaryAndMergeMatchJpaRead() {
+        IdentifyResponse first = identify(new IdentifyRequest("first@timelab.com", "111"));
+        IdentifyResponse second = identify(new IdentifyRequest("second@timelab.com", "222"));
+
+        IdentifyRequest secondaryRequest = new IdentifyRequest("first@timelab.com", "333");
+        IdentifyResponse withSecondary = identify(secondaryRequest);
+        assertEquals(first.getPrimaryContactId(), withSecondary.getPrimaryContactId());
+        assertEquals(List.of("111", "333"), withSecondary.getPhoneNumbers());
+        assertEquals(1, withSecondary.getSecondaryContactIds().size());
+        assertEquals(Optional.of(withSecondary), contactService.findKnown(secondaryRequest));
+
+        // Links the two clusters; the older primary survives
+        IdentifyRequest mergeRequest = new IdentifyRequest("second@timelab.com", "111");
+        IdentifyResponse merged = identify(mergeRequest);
+        assertEquals(first.getPrimaryContactId(), merged.getPrimaryContactId());
+        assertEquals(List.of("first@timelab.com", "second@timelab.com"), merged.getEmails());
+        assertEquals(List.of("111", "222", "333"), merged.getPhoneNumbers());
+        assertTrue(merged.getSecondaryContactIds().contains(second.getPrimaryContactId()));
+        assertEquals(Optional.of(merged), contactService.findKnown(mergeRequest));
+
+        // Answered again without a write, from the read path or the cache
+        assertEquals(merged, identify(new IdentifyRequest("first@timelab.com", "222")));
+        assertEquals(3, contactRepository.count());
+    }
+
+    @Test
+    void testClusterChangedByAnotherInstanceIsNotServedFromCache() {
+        IdentifyRequest request = new IdentifyRequest("elsewhere@timelab.com", "9201");
+        IdentifyResponse cached = identify(request);
+        assertEquals(cached, identify(request));
+
+        // Another instance adds a secondary; its cache events never reach
+        // this one, but its claim moves the primary's version
+        long rootId = cached.getPrimaryContactId();
+        long id = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR contacts_seq", Long.class);
+        jdbcTemplate.update("INSERT INTO contacts (id, email, phone_number, email_key, phone_key, linked_id, "
+                + "link_precedence, root_primary_id, created_at, updated_at) VALUES (?, 'elsewhere@timelab.com', "
+                + "'9202', ?, ?, ?, 'SECONDARY', ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", id,
+                ContactNormalizer.emailKey("elsewhere@timelab.com"), ContactNormalizer.phoneKey("9202"),
+                rootId, rootId);
+        jdbcTemplate.update("UPDATE contacts SET version = version + 1 WHERE id = ?", rootId);
+
+        IdentifyResponse current = identify(request);
+        assertEquals(List.of("9201", "9202"), current.getPhoneNumbers());
+        assertEquals(List.of(id), current.getSecondaryContactIds());
+    }
+
+    @Test
+    void testPendingMergeIsReadAsApplied() {
+        long rootId = identify(new IdentifyRequest("pending.a@timelab.com", "9101")).getPrimaryContactId();
+        long demotedId = identify(new IdentifyRequest("pending.b@timelab.com", "9102")).getPrimaryContactId();
+        long memberId = identify(new IdentifyRequest("pending.b@timelab.com", "9103"))
+                .getSecondaryContactIds().get(0);
+
+        // As an identify in asynchronous mode leaves a merge of the two
+        jdbcTemplate.update("UPDATE contacts SET link_precedence = 'SECONDARY', linked_id = ?, root_primary_id = ?, "
+                + "version = version + 1 WHERE id = ?", rootId, rootId, demotedId);
+        jdbcTemplate.update("INSERT INTO contact_merge_intents (demoted_id, root_id, created_at) "
+                + "VALUES (?, ?, CURRENT_TIMESTAMP)", demotedId, rootId);
+        identityClusterCache.invalidate(List.of());
+
+        // Only the member matches, and its stored root is the demoted primary
+        IdentifyRequest memberRequest = new IdentifyRequest(null, "9103");
+        IdentifyResponse pending = identify(memberRequest);
+        assertEquals(rootId, pending.getPrimaryContactId());
+        assertEquals(List.of(demotedId, memberId), pending.getSecondaryContactIds());
+        assertEquals(Optional.of(pending), contactService.findKnown(memberRequest));
+
+        // A write to the cluster stamps the pending members with their root
+        IdentifyResponse grown = identify(new IdentifyRequest("pending.c@timelab.com", "9103"));
+        assertEquals(rootId, grown.getPrimaryContactId());
+        assertEquals(List.of("pending.a@timelab.com", "pending.b@timelab.com", "pending.c@timelab.com"),
+                grown.getEmails());
+        assertEquals(rootId, contactRepository.findById(memberId).orElseThrow().getRootPrimaryId());
+
+        mergeQueue.drain();
+        assertEquals(Optional.of(grown),
+                contactService.findKnown(new IdentifyRequest("pending.c@timelab.com", "9103")));
+    }
+
+    @Test
+    void testInvalidRequest() {
+        webTestClient.post().uri("/api/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new IdentifyRequest(null, null))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.error").isEqualTo("Invalid request parameters");
+    }
+
+    private IdentifyResponse identify(IdentifyRequest request) {
+        return webTestClient.post().uri("/api/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(IdentifyResponse.class)
+                .returnResult()
+                .getResponseBody();
+    }
+}
@@ -0,0 +1,64 @@
+package com.moonrider.zamazon.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdentifyMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private IdentifyMetrics identifyMetrics;
+
+    private final QueryCountInspector queryCountInspector = new QueryCountInspector();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        identifyMetrics = new IdentifyMetrics(meterRegistry);
+    }
+
+    @Test
+    void testRequestRecordsQueriesAndClusterSize() {
+        IdentifyTrace trace = IdentifyTrace.start();
+        queryCountInspector.inspect("select 1");
+        queryCountInspector.inspect("select 2");
+        identifyMetrics.recordClusterSize(12);
+        trace.finish();
+
+        identifyMetrics.recordRequest(trace, "write", "success");
+
+        assertEquals(2, trace.getQueries());
+        assertEquals(12, trace.getClusterSize());
+        assertEquals(1, meterRegistry.get("identify.request").tag("path", "write").tag("outcome", "success")
+                .timer().count());
+        assertEquals(2.0, meterRegistry.get("identify.queries").summary().totalAmount());
+        assertEquals(0.0, meterRegistry.get("identify.slow.requests").counter().count());
+    }
+
+    @Test
+    void testQueriesOutsideATraceAreIgnored() {
+        IdentifyTrace trace = IdentifyTrace.start();
+        trace.finish();
+
+        queryCountInspector.inspect("select 1");
+
+        assertEquals(0, trace.getQueries());
+    }
+
+    @Test
+    void testSlowRequestIsCounted() {
+        ReflectionTestUtils.setField(identifyMetrics, "slowRequestThreshold", Duration.ZERO);
+        IdentifyTrace trace = IdentifyTrace.start();
+        trace.finish();
+
+        identifyMetrics.recordRequest(trace, "read", "success");
+
+        assertEquals(1.0, meterRegistry.get("identify.slow.requests").counter().count());
+    }
+}
@@ -0,0 +1,76 @@
+package com.moonrider.zamazon.performance;
+
+import com.moonrider.zamazon.dto.BatchIdentifyResult;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.service.BatchIdentifyService;
+import com.moonrider.zamazon.service.IdentifyCoordinator;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("test")
+
+public class BatchIdentifyPerformanceTest {
+
+    private static final int REQUESTS = 1000;
+
+    @Autowired
+    private BatchIdentifyService batchIdentifyService;
+
+    @Autowired
+    private IdentifyCoordinator identifyCoordinator;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void testBatchAgainstSequentialIdentify() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        List<IdentifyRequest> sequentialRequests = reconciliationRun("seqrun", "920");
+        statistics.clear();
+        long startTime = System.currentTimeMillis();
+        sequentialRequests.forEach(identifyCoordinator::identify);
+        long sequentialMs = System.currentTimeMillis() - startTime;
+        long sequentialStatements = statistics.getPrepareStatementCount();
+
+        List<IdentifyRequest> batchRequests = reconciliationRun("batrun", "921");
+        statistics.clear();
+        startTime = System.currentTimeMillis();
+        List<BatchIdentifyResult> results = batchIdentifyService.identifyAll(batchRequests);
+        long batchMs = System.currentTimeMillis() - startTime;
+        long batchStatements = statistics.getPrepareStatementCount();
+
+        assertEquals(REQUESTS, results.size());
+        assertTrue(results.stream().allMatch(r -> r.getStatus() == 200));
+
+        System.out.println("Batch Identify Results (" + REQUESTS + " requests):");
+        System.out.println("Sequential: " + sequentialMs + "ms, " + sequentialStatements + " statements");
+        System.out.println("Batch: " + batchMs + "ms, " + batchStatements + " statements");
+
+        // Lookups and locks are per chunk instead of per request; only the
+        // inserts remain one statement per new contact
+        assertTrue(batchStatements < sequentialStatements);
+    }
+
+    // Mostly unseen pairs, with every fourth request repeating an earlier
+    // email under a new phone, like a nightly checkout export
+    private List<IdentifyRequest> reconciliationRun(String prefix, String phonePrefix) {
+        List<IdentifyRequest> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            int customer = i % 4 == 3 ? i / 2 : i;
+            requests.add(new IdentifyRequest(prefix + customer + "@timelab.com", phonePrefix + i));
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,154 @@
+package com.moonrider.zamazon.performance;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.repository.ContactRepository;
+import com.moonrider.zamazon.service.ContactService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("test")
+
+public class ClusterResolutionPerformanceTest {
+
+    private static final int[] CLUSTER_SIZES = { 10, 100, 1000, 3000 };
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void testRoundTripsPerIdentifyDoNotGrowWithClusterSize() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        System.out.println("Cluster Resolution Results:");
+        List<Long> roundTrips = new ArrayList<>();
+
+        for (int size : CLUSTER_SIZES) {
+            String prefix = "cluster" + size;
+            seedCluster(prefix, "900" + size, size);
+
+            // A known email/phone pair: pure read of the whole cluster
+            IdentifyRequest request = new IdentifyRequest(prefix + "_0@timelab.com", "900" + size);
+
+            statistics.clear();
+            long startTime = System.nanoTime();
+            IdentifyResponse response = contactService.identify(request);
+            long durationMicros = (System.nanoTime() - startTime) / 1_000;
+            long statements = statistics.getPrepareStatementCount();
+
+            assertEquals(size - 1, response.getSecondaryContactIds().size());
+            assertEquals(size, response.getEmails().size());
+
+            // The same pair through the read-only phase skips the stripe lock
+            statistics.clear();
+            assertEquals(response, contactService.findKnown(request).orElseThrow());
+            long readOnlyStatements = statistics.getPrepareStatementCount();
+            assertTrue(readOnlyStatements < statements);
+
+            roundTrips.add(statements);
+            System.out.println("Cluster size " + size + ": " + statements + " round trips, "
+                    + readOnlyStatements + " read-only, " + durationMicros + "us");
+        }
+
+        // The per-node walk issued two queries per cluster member; the set-based
+        // loader must stay constant however large the cluster grows.
+        for (long statements : roundTrips) {
+            assertEquals(roundTrips.get(0), statements);
+            assertTrue(statements <= 3);
+        }
+    }
+
+    @Test
+    void testMergeLatencyAgainstClusterSize() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        System.out.println("Merge Results:");
+        List<Long> roundTrips = new ArrayList<>();
+
+        for (int size : CLUSTER_SIZES) {
+            // The single-row primary is created first and survives, so the whole
+            // seeded cluster is demoted and re-parented
+            String survivor = "survivor" + size + "@timelab.com";
+            Contact oldest = savePrimary(new Contact(survivor, null, Contact.LinkPrecedence.PRIMARY));
+
+            seedCluster("merged" + size, "901" + size, size);
+
+            IdentifyRequest request = new IdentifyRequest(survivor, "901" + size);
+
+            statistics.clear();
+            long startTime = System.nanoTime();
+            IdentifyResponse response = contactService.identify(request);
+            long durationMicros = (System.nanoTime() - startTime) / 1_000;
+            long statements = statistics.getPrepareStatementCount();
+
+            assertEquals(oldest.getId(), response.getPrimaryContactId());
+            assertEquals(size, response.getSecondaryContactIds().size());
+            assertEquals(size + 1, contactRepository.findByRootPrimaryIdIn(List.of(oldest.getId())).size());
+
+            roundTrips.add(statements);
+            System.out.println("Merged cluster size " + size + ": " + statements + " round trips, "
+                    + durationMicros + "us");
+        }
+
+        // One UPDATE per demoted contact used to dominate; the bulk statements
+        // keep the merge at a fixed number of round trips, plus one version
+        // claim for the root and one for the demoted primary
+        for (long statements : roundTrips) {
+            assertEquals(roundTrips.get(0), statements);
+            assertTrue(statements <= 7);
+        }
+    }
+
+    // Persists a primary the way ContactService does: ContactRootInterceptor
+    // sets its root before the INSERT is written
+    private Contact savePrimary(Contact primary) {
+        return transactionTemplate.execute(status -> contactRepository.save(primary));
+    }
+
+    // Builds one primary plus (size - 1) secondaries, half of them chained
+    // through another secondary to mimic clusters re-parented by earlier merges.
+    private void seedCluster(String prefix, String phoneNumber, int size) {
+        Contact primary = new Contact(prefix + "_0@timelab.com", phoneNumber, Contact.LinkPrecedence.PRIMARY);
+        primary = savePrimary(primary);
+
+        Contact firstSecondary = null;
+        List<Contact> secondaries = new ArrayList<>();
+        for (int i = 1; i < size; i++) {
+            Contact secondary = new Contact(prefix + "_" + i + "@timelab.com", null, Contact.LinkPrecedence.SECONDARY);
+            secondary.setRootPrimaryId(primary.getId());
+            if (firstSecondary == null || i % 2 == 0) {
+                secondary.setLinkedId(primary.getId());
+            } else {
+                secondary.setLinkedId(firstSecondary.getId());
+            }
+            if (firstSecondary == null) {
+                firstSecondary = contactRepository.save(secondary);
+            } else {
+                secondaries.add(secondary);
+            }
+        }
+        contactRepository.saveAll(secondaries);
+    }
+}
@@ -0,0 +1,77 @@
+package com.moonrider.zamazon.performance;
+
+import com.moonrider.zamazon.entity.Contact;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("test")
+
+public class ContactInsertPerformanceTest {
+
+    private static final int ROWS = 5000;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void testBulkContactCreationBatchedAgainstUnbatched() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        // A JDBC batch size of 1 is what every insert got under IDENTITY ids
+        statistics.clear();
+        long unbatchedMs = insertContacts("unbatched", 1);
+        long unbatchedStatements = statistics.getPrepareStatementCount();
+
+        statistics.clear();
+        long batchedMs = insertContacts("batched", null);
+        long batchedStatements = statistics.getPrepareStatementCount();
+
+        System.out.println("Bulk Insert Results (" + ROWS + " contacts):");
+        System.out.println("Unbatched: " + unbatchedMs + "ms, " + unbatchedStatements + " statements, "
+                + (ROWS * 1000L / Math.max(unbatchedMs, 1)) + " rows/sec");
+        System.out.println("Batched: " + batchedMs + "ms, " + batchedStatements + " statements, "
+                + (ROWS * 1000L / Math.max(batchedMs, 1)) + " rows/sec");
+
+        // Ids come from the sequence a block at a time and the INSERTs go out
+        // in JDBC batches, so both costs are per block rather than per row.
+        // The root of each primary is part of its INSERT: one statement per
+        // row without batching, not an INSERT plus an UPDATE.
+        assertTrue(unbatchedStatements >= ROWS);
+        assertTrue(unbatchedStatements < 2 * ROWS);
+        assertTrue(batchedStatements <= ROWS / 10);
+    }
+
+    // Persists ROWS primaries in one transaction; a null batch size keeps
+    // the configured hibernate.jdbc.batch_size
+    private long insertContacts(String prefix, Integer jdbcBatchSize) {
+        long startTime = System.currentTimeMillis();
+        transactionTemplate.executeWithoutResult(status -> {
+            if (jdbcBatchSize != null) {
+                entityManager.unwrap(Session.class).setJdbcBatchSize(jdbcBatchSize);
+            }
+            for (int i = 0; i < ROWS; i++) {
+                Contact contact = new Contact(prefix + i + "@timelab.com", null, Contact.LinkPrecedence.PRIMARY);
+                entityManager.persist(contact);
+            }
+        });
+        return System.currentTimeMillis() - startTime;
+    }
+}
@@ -1,16 +1,27 @@
 package com.moonrider.zamazon.performance;
 
 import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.repository.ContactRepository;
 import com.moonrider.zamazon.service.ContactService;
+import com.moonrider.zamazon.service.IdentifyCoordinator;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
 @ActiveProfiles("test")
@@ -20,6 +31,12 @@ public class ContactServicePerformanceTest {
     @Autowired
     private ContactService contactService;
 
+    @Autowired
+    private IdentifyCoordinator identifyCoordinator;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
     @Test
     void testConcurrentRequests() throws InterruptedException {
         int numberOfThreads = 10;
@@ -64,4 +81,102 @@ public class ContactServicePerformanceTest {
         assert successCount.get() > (numberOfThreads * requestsPerThread * 0.95); // 95% success rate
         assert duration < 10000; // Complete within 10 seconds
     }
+
+    @Test
+    void testSameIdentityContentionCreatesExactlyOnePrimary() throws InterruptedException {
+        // Every thread sends the same brand-new pair at the same moment
+        Set<Long> primaryIds = runContended(16, i -> new IdentifyRequest("race@timelab.com", "555000111"),
+                identifyCoordinator::identify);
+
+        List<Contact> contacts = contactRepository.findByEmailOrPhoneNumber("race@timelab.com", "555000111");
+        assertEquals(1, contacts.size());
+        assertEquals(Contact.LinkPrecedence.PRIMARY, contacts.get(0).getLinkPrecedence());
+        assertEquals(Set.of(contacts.get(0).getId()), primaryIds);
+    }
+
+    @Test
+    void testSameEmailContentionLinksEverythingToOnePrimary() throws InterruptedException {
+        // Same new email, a different phone per thread: one primary, the rest secondaries
+        Set<Long> primaryIds = runContended(16, i -> new IdentifyRequest("race2@timelab.com", "555100" + i),
+                identifyCoordinator::identify);
+
+        List<Contact> contacts = contactRepository.findByEmailOrPhoneNumber("race2@timelab.com", null);
+        assertEquals(16, contacts.size());
+        assertEquals(1, contacts.stream().filter(c -> c.getLinkPrecedence() == Contact.LinkPrecedence.PRIMARY).count());
+        assertEquals(1, primaryIds.size());
+    }
+
+    @Test
+    void testDatabaseLockAloneKeepsOnePrimary() throws InterruptedException {
+        // Bypasses the in-process lock, as two application instances would
+        Set<Long> primaryIds = runContended(8, i -> new IdentifyRequest("race3@timelab.com", "555200111"),
+                contactService::identify);
+
+        List<Contact> contacts = contactRepository.findByEmailOrPhoneNumber("race3@timelab.com", "555200111");
+        assertEquals(1, contacts.size());
+        assertEquals(1, primaryIds.size());
+    }
+
+    @Test
+    void testConcurrentMergesOfOverlappingClustersLeaveOneConsistentCluster() throws InterruptedException {
+        // A chain of clusters, oldest first; request i joins cluster i to
+        // cluster i + 1. Neighbouring requests share a cluster but not a
+        // lock stripe, so only the version checks keep their merges apart.
+        int clusters = 9;
+        Long oldestPrimaryId = null;
+        for (int i = 0; i <= clusters; i++) {
+            IdentifyResponse response = identifyCoordinator.identify(
+                    new IdentifyRequest("chain" + i + "@timelab.com", "555300" + i));
+            if (i == 0) {
+                oldestPrimaryId = response.getPrimaryContactId();
+            }
+        }
+
+        runContended(clusters, i -> new IdentifyRequest("chain" + i + "@timelab.com", "555300" + (i + 1)),
+                identifyCoordinator::identify);
+
+        IdentifyResponse merged = identifyCoordinator.identify(new IdentifyRequest("chain0@timelab.com", null));
+        assertEquals(oldestPrimaryId, merged.getPrimaryContactId());
+        assertEquals(clusters + 1, merged.getEmails().size());
+        assertEquals(clusters + 1, merged.getPhoneNumbers().size());
+        // Every row of the chain ended up under the oldest primary
+        List<Contact> rows = contactRepository.findByRootPrimaryIdIn(List.of(oldestPrimaryId));
+        assertEquals(merged.getSecondaryContactIds().size() + 1, rows.size());
+        for (Contact row : rows) {
+            boolean primary = row.getId().equals(oldestPrimaryId);
+            assertEquals(primary ? Contact.LinkPrecedence.PRIMARY : Contact.LinkPrecedence.SECONDARY,
+                    row.getLinkPrecedence());
+            assertEquals(primary ? null : oldestPrimaryId, row.getLinkedId());
+        }
+    }
+
+    private Set<Long> runContended(int numberOfThreads, Function<Integer, IdentifyRequest> requests,
+            Function<IdentifyRequest, IdentifyResponse> identify) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        CountDownLatch start = new CountDownLatch(1);
+        Set<Long> primaryIds = ConcurrentHashMap.newKeySet();
+        AtomicInteger errorCount = new AtomicInteger(0);
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int threadId = i;
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    primaryIds.add(identify.apply(requests.apply(threadId)).getPrimaryContactId());
+                } catch (Exception e) {
+                    errorCount.incrementAndGet();
+                }
+            });
+        }
+
+        long startTime = System.currentTimeMillis();
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        System.out.println("Contention Test: " + numberOfThreads + " threads in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+        assertEquals(0, errorCount.get());
+        return primaryIds;
+    }
 }
@@ -0,0 +1,148 @@
+package com.moonrider.zamazon.performance;
+
+import com.moonrider.zamazon.ContactServiceApplication;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Drives /api/identify over HTTP against the application started once with
+// Tomcat's platform thread pool and once with the virtual-threads profile,
+// and compares throughput and tail latency. While the virtual-thread run is
+// under load, JFR reports every virtual thread pinned to its carrier.
+@EnabledForJreRange(min = JRE.JAVA_21)
+public class ThreadModelLoadTest {
+
+    private static final int REQUESTS = 4000;
+    private static final int IN_FLIGHT = 400;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    @Test
+    void testPlatformAgainstVirtualThreads() throws Exception {
+        LoadResult platform = runAgainst("platform", null, null);
+
+        List<RecordedEvent> pinned = new CopyOnWriteArrayList<>();
+        LoadResult virtual;
+        try (RecordingStream recording = new RecordingStream()) {
+            recording.enable("jdk.VirtualThreadPinned").withStackTrace();
+            recording.onEvent("jdk.VirtualThreadPinned", pinned::add);
+            recording.startAsync();
+            virtual = runAgainst("virtual", "virtual-threads", recording);
+        }
+
+        System.out.println("Thread Model Load Results (" + REQUESTS + " requests, " + IN_FLIGHT + " in flight):");
+        System.out.println("Platform threads: " + platform);
+        System.out.println("Virtual threads: " + virtual);
+        System.out.println("Pinned virtual threads: " + pinned.size());
+        pinned.stream().limit(3).forEach(System.out::println);
+
+        assertEquals(0, platform.errors);
+        assertEquals(0, virtual.errors);
+        // Nothing on the identify path may hold a monitor while it blocks
+        assertTrue(pinned.stream().noneMatch(ThreadModelLoadTest::pinnedInApplicationCode));
+    }
+
+    private LoadResult runAgainst(String name, String profile, RecordingStream recording) throws Exception {
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(ContactServiceApplication.class)
+                .properties("server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:load_" + name + ";LOCK_TIMEOUT=10000",
+                        "contact.backfill.enabled=false",
+                        "logging.level.root=WARN");
+        if (profile != null) {
+            builder.profiles(profile);
+        }
+
+        try (ConfigurableApplicationContext context = builder.run()) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            URI uri = URI.create("http://localhost:" + port + "/api/identify");
+
+            // Warm up the connection pool, JIT and caches before measuring
+            drive(uri, name + "warm", REQUESTS / 4);
+            LoadResult result = drive(uri, name, REQUESTS);
+            if (recording != null) {
+                // JFR flushes its buffers about once a second
+                Thread.sleep(1500);
+            }
+            return result;
+        }
+    }
+
+    // Keeps IN_FLIGHT requests outstanding. Every third request repeats an
+    // earlier email with a new phone, the rest are new pairs.
+    private LoadResult drive(URI uri, String prefix, int requests) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(IN_FLIGHT);
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>(requests));
+        AtomicInteger errors = new AtomicInteger();
+        List<CompletableFuture<?>> futures = new ArrayList<>(requests);
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int customer = i % 3 == 2 ? i / 2 : i;
+            String body = "{\"email\":\"" + prefix + customer + "@timelab.com\",\"phoneNumber\":\"" + (100000 + i) + "\"}";
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(30))
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            futures.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        latencies.add(System.nanoTime() - sent);
+                        if (failure != null || response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                        }
+                        inFlight.release();
+                    }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return new LoadResult(requests * 1_000_000_000.0 / elapsedNanos, percentileMillis(sorted, 0.50),
+                percentileMillis(sorted, 0.99), errors.get());
+    }
+
+    private static double percentileMillis(List<Long> sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.size()) - 1;
+        return sortedNanos.get(Math.max(index, 0)) / 1_000_000.0;
+    }
+
+    private static boolean pinnedInApplicationCode(RecordedEvent event) {
+        return event.getStackTrace() != null && event.getStackTrace().getFrames().stream()
+                .anyMatch(frame -> frame.getMethod().getType().getName().startsWith("com.moonrider"));
+    }
+
+    private record LoadResult(double requestsPerSecond, double p50Millis, double p99Millis, int errors) {
+
+        @Override
+        public String toString() {
+            return String.format("%.0f req/s, p50 %.1fms, p99 %.1fms, %d errors", requestsPerSecond, p50Millis,
+                    p99Millis, errors);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.moonrider.zamazon.repository;
+
+import com.moonrider.zamazon.util.ContactNormalizer;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.moonrider.zamazon.repository.ContactRepositoryIndexTest$CapturingStatementInspector",
+        "spring.datasource.url=jdbc:h2:mem:index;LOCK_TIMEOUT=10000" })
+@ActiveProfiles("test")
+@Transactional
+
+public class ContactRepositoryIndexTest {
+
+    private static final int TABLE_SIZE = 20_000;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // ANALYZE commits the open transaction in H2, so the rows outlive the
+    // test that inserted them; they are inserted once per database
+    @BeforeEach
+    void setUp() {
+        CapturingStatementInspector.STATEMENTS.clear();
+        if (jdbcTemplate.queryForObject("SELECT COUNT(*) FROM contacts", Long.class) >= TABLE_SIZE) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>();
+        long blockStart = 0;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            // Ids are taken from contacts_seq a block of 50 at a time, as Hibernate does
+            if (i % 50 == 0) {
+                blockStart = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR contacts_seq", Long.class);
+            }
+            // Every tenth row is a secondary so linked_id is not a single value
+            Object linkedId = i % 10 == 0 ? null : (long) (i / 10 * 10 + 1);
+            String email = "idx" + i + "@timelab.com";
+            String phoneNumber = "700" + i;
+            rows.add(new Object[] { blockStart + i % 50, email, phoneNumber, ContactNormalizer.emailKey(email),
+                    ContactNormalizer.phoneKey(phoneNumber), linkedId, i % 10 == 0 ? "PRIMARY" : "SECONDARY" });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO contacts (id, email, phone_number, email_key, phone_key, linked_id, "
+                + "link_precedence, created_at, updated_at) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", rows);
+        jdbcTemplate.execute("ANALYZE");
+        CapturingStatementInspector.STATEMENTS.clear();
+    }
+
+    @Test
+    void testEmailOrPhoneLookupUsesBothKeyIndexes() {
+        assertEquals(2, contactRepository.findByEmailOrPhoneNumber("IDX42@timelab.com ", "+1 700-43").size());
+
+        String plan = explain(lastStatement(), ContactNormalizer.emailKey("idx42@timelab.com"),
+                ContactNormalizer.phoneKey("70043"));
+        assertTrue(plan.contains("IDX_CONTACTS_EMAIL_KEY"), plan);
+        assertTrue(plan.contains("IDX_CONTACTS_PHONE_KEY"), plan);
+        assertFalse(plan.contains("tableScan"), plan);
+    }
+
+    @Test
+    void testLinkedIdLookupUsesIndex() {
+        contactRepository.findByLinkedId(11L);
+
+        String plan = explain(lastStatement(), 11L);
+        assertTrue(plan.contains("IDX_CONTACTS_LINKED_ID"), plan);
+        assertFalse(plan.contains("CONTACTS.tableScan"), plan);
+    }
+
+    @Test
+    void testClusterLoadWalksLinkedIdIndex() {
+        contactRepository.findClusterByRootIds(List.of(11L));
+
+        String plan = explain(lastStatement(), 11L);
+        assertTrue(plan.contains("IDX_CONTACTS_LINKED_ID"), plan);
+        assertFalse(plan.contains("CONTACTS.tableScan"), plan);
+    }
+
+    @Test
+    void testClusterPageSeeksPrimaryKeyAtAnyDepth() {
+        List<Long> page = contactRepository.findPrimaryIdsAfter(15_000L, Limit.of(100));
+        assertEquals(100, page.size());
+        assertTrue(page.get(0) > 15_000L);
+
+        String plan = explain(lastStatement(), 15_000L, 0, 100);
+        assertTrue(plan.contains("PRIMARY_KEY"), plan);
+        assertTrue(plan.contains("ID > ?1"), plan);
+        assertTrue(plan.contains("index sorted"), plan);
+    }
+
+    @Test
+    void testClusterSummariesUseRootIndex() {
+        contactRepository.findSummariesByRootPrimaryIdIn(List.of(11L));
+
+        String plan = explain(lastStatement(), 11L);
+        assertTrue(plan.contains("IDX_CONTACTS_ROOT_PRIMARY_ID"), plan);
+        assertFalse(plan.contains("CONTACTS.tableScan"), plan);
+    }
+
+    private String lastStatement() {
+        List<String> statements = CapturingStatementInspector.STATEMENTS;
+        assertFalse(statements.isEmpty(), "No statement captured");
+        return statements.get(statements.size() - 1);
+    }
+
+    private String explain(String sql, Object... args) {
+        String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class, args));
+        System.out.println("Plan for: " + sql + "\n" + plan);
+        return plan;
+    }
+
+    public static class CapturingStatementInspector implements StatementInspector {
+
+        static final List<String> STATEMENTS = new ArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.BatchIdentifyResult;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.repository.ContactRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = { "contact.batch.chunk-size=4", "contact.batch.max-stripes=4" })
+@ActiveProfiles("test")
+
+public class BatchIdentifyServiceTest {
+
+    @Autowired
+    private BatchIdentifyService batchIdentifyService;
+
+    @Autowired
+    private IdentifyCoordinator identifyCoordinator;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private IdentityLockManager identityLockManager;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Test
+    void testBatchMatchesSequentialIdentify() {
+        List<IdentifyRequest> sequentialRequests = scenario("seq", "711");
+        List<IdentifyRequest> batchRequests = scenario("bat", "712");
+
+        List<IdentifyResponse> sequential = new ArrayList<>();
+        for (IdentifyRequest request : sequentialRequests) {
+            try {
+                sequential.add(identifyCoordinator.identify(request));
+            } catch (IllegalArgumentException e) {
+                sequential.add(null);
+            }
+        }
+
+        List<BatchIdentifyResult> batch = batchIdentifyService.identifyAll(batchRequests);
+
+        assertEquals(sequential.size(), batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            BatchIdentifyResult result = batch.get(i);
+            assertEquals(i, result.getIndex());
+
+            IdentifyResponse expected = sequential.get(i);
+            if (expected == null) {
+                assertEquals(400, result.getStatus());
+                continue;
+            }
+
+            IdentifyResponse actual = result.getContact();
+            assertEquals(200, result.getStatus());
+            assertEquals(strip(expected.getEmails(), "seq"), strip(actual.getEmails(), "bat"));
+            assertEquals(strip(expected.getPhoneNumbers(), "711"), strip(actual.getPhoneNumbers(), "712"));
+            assertEquals(expected.getSecondaryContactIds().size(), actual.getSecondaryContactIds().size());
+            // The same earlier item created the primary in both runs
+            assertEquals(creatorOf(expected.getPrimaryContactId(), sequential),
+                    creatorOf(actual.getPrimaryContactId(),
+                            batch.stream().map(BatchIdentifyResult::getContact).collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    void testChunkGrowingItsOwnNewContactsIsNotRetriedItemByItem() {
+        double fallbacks = meterRegistry.counter("identify.batch.chunk.fallbacks").count();
+
+        // Each chunk (of 4) creates primaries and then adds secondaries to
+        // and merges the contacts it just created
+        List<BatchIdentifyResult> results = batchIdentifyService.identifyAll(List.of(
+                new IdentifyRequest("ownf@timelab.com", "71301"),
+                new IdentifyRequest("ownf@timelab.com", "71302"),
+                new IdentifyRequest("owng@timelab.com", "71303"),
+                new IdentifyRequest("owng@timelab.com", "71302"),
+                new IdentifyRequest("ownh@timelab.com", "71304"),
+                new IdentifyRequest("ownh@timelab.com", "71305"),
+                new IdentifyRequest("ownh@timelab.com", "71301")));
+
+        assertEquals(fallbacks, meterRegistry.counter("identify.batch.chunk.fallbacks").count());
+        IdentifyResponse last = results.get(results.size() - 1).getContact();
+        assertEquals(results.get(0).getContact().getPrimaryContactId(), last.getPrimaryContactId());
+        assertEquals(5, last.getPhoneNumbers().size());
+    }
+
+    @Test
+    void testChunkDoesNotHoldStripesOfGroupsItHasFinished() throws Exception {
+        IdentifyRequest first = new IdentifyRequest("grpa@timelab.com", "71401");
+        IdentifyRequest second = new IdentifyRequest("grpb@timelab.com", "71402");
+        IdentifyRequest third = new IdentifyRequest("grpc@timelab.com", "71403");
+        IdentifyRequest fourth = new IdentifyRequest("grpd@timelab.com", "71404");
+        List<Integer> laterStripes = new ArrayList<>(stripesOf(third));
+        laterStripes.addAll(stripesOf(fourth));
+
+        // An unrelated identity that shares a stripe with the chunk's first
+        // group only
+        IdentifyRequest unrelated = null;
+        for (int i = 0; unrelated == null; i++) {
+            IdentifyRequest candidate = new IdentifyRequest("unrelated" + i + "@timelab.com", null);
+            List<Integer> stripes = stripesOf(candidate);
+            if (stripesOf(first).containsAll(stripes) && !laterStripes.contains(stripes.get(0))) {
+                unrelated = candidate;
+            }
+        }
+
+        // The last group of the chunk (of 4, at most 4 stripes per group)
+        // waits for a stripe held elsewhere, as it would behind a slow writer
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> identityLockManager.withStripes(stripesOf(fourth), () -> {
+            held.countDown();
+            try {
+                return release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        holder.start();
+        assertTrue(held.await(5, TimeUnit.SECONDS));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<BatchIdentifyResult>> batch = executor.submit(
+                    () -> batchIdentifyService.identifyAll(List.of(first, second, third, fourth)));
+            awaitCreated(first);
+
+            IdentifyRequest single = unrelated;
+            IdentifyResponse response = executor.submit(() -> identifyCoordinator.identify(single))
+                    .get(2, TimeUnit.SECONDS);
+            assertEquals(List.of(single.getEmail()), response.getEmails());
+
+            release.countDown();
+            holder.join();
+            for (BatchIdentifyResult result : batch.get(30, TimeUnit.SECONDS)) {
+                assertEquals(200, result.getStatus());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Integer> stripesOf(IdentifyRequest request) {
+        return identityLockManager.stripesFor(request.getEmail(), request.getPhoneNumber());
+    }
+
+    private void awaitCreated(IdentifyRequest request) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (contactRepository.findByEmailOrPhoneNumber(request.getEmail(), null).isEmpty()) {
+            assertTrue(System.nanoTime() < deadline, "first group was not committed");
+            Thread.sleep(10);
+        }
+    }
+
+    // New primaries, secondaries, merges within and across chunks (of 4),
+    // repeats and an invalid item
+    private List<IdentifyRequest> scenario(String prefix, String phonePrefix) {
+        return List.of(
+                new IdentifyRequest(prefix + "a@timelab.com", phonePrefix + "01"),
+                new IdentifyRequest(prefix + "b@timelab.com", phonePrefix + "02"),
+                new IdentifyRequest(prefix + "a@timelab.com", phonePrefix + "02"),
+                new IdentifyRequest(prefix + "c@timelab.com", phonePrefix + "01"),
+                new IdentifyRequest(null, null),
+                new IdentifyRequest(prefix + "a@timelab.com", null),
+                new IdentifyRequest(prefix + "d@timelab.com", phonePrefix + "03"),
+                new IdentifyRequest(prefix + "d@timelab.com", phonePrefix + "01"),
+                new IdentifyRequest(prefix + "c@timelab.com", phonePrefix + "03"),
+                new IdentifyRequest(prefix + "e@timelab.com", phonePrefix + "04"),
+                new IdentifyRequest(null, phonePrefix + "04"));
+    }
+
+    private static List<String> strip(List<String> values, String prefix) {
+        return values.stream().map(v -> v.substring(prefix.length())).collect(Collectors.toList());
+    }
+
+    private static int creatorOf(Long primaryId, List<IdentifyResponse> responses) {
+        for (int i = 0; i < responses.size(); i++) {
+            if (responses.get(i) != null && primaryId.equals(responses.get(i).getPrimaryContactId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,58 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.entity.Contact;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterResponseBuilderTest {
+
+    @Test
+    void testResponseIsSortedAndDistinct() {
+        ClusterResponseBuilder builder = new ClusterResponseBuilder(1);
+        builder.add("b@timelab.com", "222", false, 1L);
+        builder.add("a@timelab.com", null, true, 9L);
+        builder.add(null, "111", true, 4L);
+        builder.add("b@timelab.com", "222", true, 7L);
+
+        IdentifyResponse response = builder.build(1L);
+
+        assertEquals(1L, response.getPrimaryContactId());
+        assertEquals(List.of("a@timelab.com", "b@timelab.com"), response.getEmails());
+        assertEquals(List.of("111", "222"), response.getPhoneNumbers());
+        assertEquals(List.of(4L, 7L, 9L), response.getSecondaryContactIds());
+    }
+
+    @Test
+    void testSettledClusterNeedsOnePrimaryCarriedAsEveryRoot() {
+        List<Contact> cluster = new ArrayList<>();
+        cluster.add(contact(1L, "a@timelab.com", "111", Contact.LinkPrecedence.PRIMARY, 1L));
+        cluster.add(contact(2L, "b@timelab.com", null, Contact.LinkPrecedence.SECONDARY, 1L));
+        IdentifyRequest known = new IdentifyRequest("b@timelab.com", "111");
+
+        assertTrue(ContactService.isSettled(known, cluster));
+        assertFalse(ContactService.isSettled(new IdentifyRequest("c@timelab.com", "111"), cluster));
+
+        cluster.get(1).setRootPrimaryId(null);
+        assertFalse(ContactService.isSettled(known, cluster));
+
+        cluster.get(1).setRootPrimaryId(1L);
+        cluster.add(contact(3L, null, "333", Contact.LinkPrecedence.PRIMARY, 3L));
+        assertFalse(ContactService.isSettled(known, cluster));
+    }
+
+    private static Contact contact(Long id, String email, String phoneNumber,
+            Contact.LinkPrecedence linkPrecedence, Long rootPrimaryId) {
+        Contact contact = new Contact(email, phoneNumber, linkPrecedence);
+        contact.setId(id);
+        contact.setRootPrimaryId(rootPrimaryId);
+        contact.setCreatedAt(LocalDateTime.now().minusDays(id));
+        return contact;
+    }
+}
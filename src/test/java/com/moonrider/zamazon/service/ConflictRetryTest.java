@@ -0,0 +1,114 @@
+package com.moonrider.zamazon.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import reactor.core.publisher.Mono;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConflictRetryTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ConflictRetry conflictRetry = new ConflictRetry(meterRegistry, 3, Duration.ofMillis(1));
+
+    @Test
+    void testConflictsAreRetriedAndCounted() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = conflictRetry.run(() -> {
+            int attempt = attempts.incrementAndGet();
+            if (attempt == 1) {
+                throw new ObjectOptimisticLockingFailureException("Contact", 4L);
+            }
+            if (attempt == 2) {
+                throw new DataIntegrityViolationException("duplicate key",
+                        new SQLException("Unique index or primary key violation", "23505"));
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+        assertEquals(1.0, meterRegistry.counter("identify.retries", "cause", "optimistic_lock").count());
+        assertEquals(1.0, meterRegistry.counter("identify.retries", "cause", "constraint").count());
+        assertEquals(0.0, meterRegistry.counter("identify.retry.exhausted").count());
+    }
+
+    @Test
+    void testLastConflictIsRethrown() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> conflictRetry.run(() -> {
+            attempts.incrementAndGet();
+            throw new ObjectOptimisticLockingFailureException("Contact", 4L);
+        }));
+
+        assertEquals(3, attempts.get());
+        assertEquals(1.0, meterRegistry.counter("identify.retry.exhausted").count());
+    }
+
+    @Test
+    void testReactiveWorkIsResubscribedAfterConflicts() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = conflictRetry.run(Mono.defer(() -> attempts.incrementAndGet() < 3
+                ? Mono.<String>error(new ObjectOptimisticLockingFailureException("Contact", 4L))
+                : Mono.just("done"))).block();
+
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2.0, meterRegistry.counter("identify.retries", "cause", "optimistic_lock").count());
+
+        attempts.set(0);
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> conflictRetry.run(Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.<String>error(new ObjectOptimisticLockingFailureException("Contact", 4L));
+        })).block());
+        assertEquals(3, attempts.get());
+        assertEquals(1.0, meterRegistry.counter("identify.retry.exhausted").count());
+    }
+
+    @Test
+    void testPermanentIntegrityViolationsAreNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(DataIntegrityViolationException.class, () -> conflictRetry.run(() -> {
+            attempts.incrementAndGet();
+            throw new DataIntegrityViolationException("value too long",
+                    new SQLException("Value too long for column", "22001"));
+        }));
+        assertEquals(1, attempts.get());
+
+        attempts.set(0);
+        assertThrows(DataIntegrityViolationException.class, () -> conflictRetry.run(Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.<String>error(new DataIntegrityViolationException("not null",
+                    new SQLException("NULL not allowed for column", "23502")));
+        })).block());
+        assertEquals(1, attempts.get());
+
+        assertTrue(ConflictRetry.isConflict(new DuplicateKeyException("duplicate key")));
+        assertEquals(0.0, meterRegistry.counter("identify.retries", "cause", "constraint").count());
+        assertEquals(0.0, meterRegistry.counter("identify.retry.exhausted").count());
+    }
+
+    @Test
+    void testOtherFailuresAreNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalArgumentException.class, () -> conflictRetry.run(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException("invalid");
+        }));
+
+        assertEquals(1, attempts.get());
+    }
+}
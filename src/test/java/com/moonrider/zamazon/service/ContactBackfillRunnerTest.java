@@ -0,0 +1,59 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.entity.ContactBackfillMarker;
+import com.moonrider.zamazon.repository.ContactBackfillMarkerRepository;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+
+public class ContactBackfillRunnerTest {
+
+    @Autowired
+    private ContactBackfillRunner contactBackfillRunner;
+
+    @Autowired
+    private ContactBackfillMarkerRepository markerRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testCompletedBackfillIsSkippedUntilTheRulesChange() {
+        // Startup ran the backfill and recorded it
+        ContactBackfillMarker marker = markerRepository.findById(ContactBackfillRunner.MARKER_NAME).orElseThrow();
+        assertEquals(ContactNormalizer.RULES_VERSION, marker.getVersion());
+
+        // A row keyed under older rules: "1 (555) 010-0100" used to get the
+        // country code prefixed a second time
+        long id = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR contacts_seq", Long.class);
+        jdbcTemplate.update("INSERT INTO contacts (id, phone_number, phone_key, link_precedence, root_primary_id, "
+                + "created_at, updated_at) VALUES (?, '1 (555) 010-0100', 115550100100, 'PRIMARY', ?, "
+                + "CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", id, id);
+
+        contactBackfillRunner.start();
+        assertEquals(115550100100L, phoneKeyOf(id));
+
+        markerRepository.save(new ContactBackfillMarker(ContactBackfillRunner.MARKER_NAME,
+                ContactNormalizer.RULES_VERSION - 1, LocalDateTime.now()));
+        contactBackfillRunner.start();
+        assertEquals(ContactNormalizer.phoneKey("1 (555) 010-0100"), phoneKeyOf(id));
+        assertEquals(ContactNormalizer.RULES_VERSION,
+                markerRepository.findById(ContactBackfillRunner.MARKER_NAME).orElseThrow().getVersion());
+    }
+
+    private long phoneKeyOf(long id) {
+        return jdbcTemplate.queryForObject("SELECT phone_key FROM contacts WHERE id = ?", Long.class, id);
+    }
+}
@@ -0,0 +1,79 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The compaction thread is off; the test runs compact itself
+@SpringBootTest(properties = {
+        "contact.backfill.enabled=false",
+        "contact.compaction.enabled=false",
+        "contact.compaction.retention=1d",
+        "contact.compaction.batch-size=2",
+        "contact.compaction.batch-pause=0ms",
+        "spring.datasource.url=jdbc:h2:mem:deletion;LOCK_TIMEOUT=10000" })
+@ActiveProfiles("test")
+
+public class ContactDeletionServiceTest {
+
+    @Autowired
+    private ContactDeletionService contactDeletionService;
+
+    @Autowired
+    private IdentifyCoordinator identifyCoordinator;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void testCompactionPurgesTombstonesPastRetentionInBatches() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ids.add(identifyCoordinator.identify(new IdentifyRequest("purge" + i + "@timelab.com", "8200" + i))
+                    .getPrimaryContactId());
+        }
+        for (Long id : ids.subList(0, 5)) {
+            assertTrue(contactDeletionService.delete(id));
+        }
+        assertFalse(contactDeletionService.delete(ids.get(0)));
+
+        // Five tombstones, one of them still inside the retention window
+        jdbcTemplate.update("UPDATE contacts SET deleted_at = DATEADD('DAY', -2, deleted_at) WHERE id IN (?, ?, ?, ?)",
+                ids.get(0), ids.get(1), ids.get(2), ids.get(3));
+
+        assertEquals(4, contactDeletionService.compact());
+        assertEquals(0, contactDeletionService.compact());
+        assertEquals(4.0, meterRegistry.get("contact.compaction.purged").counter().count());
+        assertEquals(List.of(ids.get(4), ids.get(5)), jdbcTemplate.queryForList(
+                "SELECT id FROM contacts WHERE email LIKE 'purge%' ORDER BY id", Long.class));
+    }
+
+    @Test
+    void testCacheForgetsDeletedEmail() {
+        IdentifyResponse cluster = identifyCoordinator.identify(new IdentifyRequest("stays@timelab.com", "8300"));
+        long deletedId = identifyCoordinator.identify(new IdentifyRequest("leaves@timelab.com", "8300"))
+                .getSecondaryContactIds().get(0);
+        assertTrue(contactDeletionService.delete(deletedId));
+
+        // The cluster is cached again without the deleted contact
+        assertEquals(cluster, identifyCoordinator.identify(new IdentifyRequest("stays@timelab.com", "8300")));
+        assertEquals(cluster, identifyCoordinator.identify(new IdentifyRequest("stays@timelab.com", "8300")));
+
+        IdentifyResponse leaves = identifyCoordinator.identify(new IdentifyRequest("leaves@timelab.com", null));
+        assertNotEquals(cluster.getPrimaryContactId(), leaves.getPrimaryContactId());
+        assertEquals(List.of("leaves@timelab.com"), leaves.getEmails());
+    }
+}
@@ -0,0 +1,112 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.ContactImportReport;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.entity.ContactImportCheckpoint;
+import com.moonrider.zamazon.repository.ContactImportCheckpointRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "contact.backfill.enabled=false",
+        "contact.import.chunk-size=2",
+        "spring.datasource.url=jdbc:h2:mem:import;LOCK_TIMEOUT=10000" })
+@ActiveProfiles("test")
+
+public class ContactImportServiceTest {
+
+    @Autowired
+    private ContactImportService contactImportService;
+
+    @Autowired
+    private ContactImportCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    private Path dir;
+
+    @Test
+    void testCsvImportBuildsClustersInFileOrder() throws Exception {
+        Path file = write("orders.csv",
+                "order_id,Phone_Number,email\r\n"
+                + "1,5101,\"csv.a@timelab.com\"\r\n"
+                + "2,5102,\"csv, b@timelab.com\r\n"
+                + "3,5101,csv.c@timelab.com\r\n"
+                + "\r\n"
+                + "4,,\r\n"
+                + "5,5103,csv.a@timelab.com\r\n");
+
+        ContactImportReport report = contactImportService.importFile(file, "csv-orders");
+
+        assertEquals(5, report.getRowsRead());
+        assertEquals(3, report.getRowsImported());
+        // The unterminated quote and the row without email or phone
+        assertEquals(2, report.getRowsInvalid());
+        assertEquals(0, report.getResumedAtRow());
+        assertTrue(report.isCompleted());
+
+        IdentifyResponse cluster = contactService.findKnown(new IdentifyRequest("csv.a@timelab.com", "5103"))
+                .orElseThrow();
+        assertEquals(List.of("csv.a@timelab.com", "csv.c@timelab.com"), cluster.getEmails());
+        assertEquals(List.of("5101", "5103"), cluster.getPhoneNumbers());
+        assertEquals(2, cluster.getSecondaryContactIds().size());
+    }
+
+    @Test
+    void testNdjsonImportResumesAfterCheckpoint() throws Exception {
+        String done = "{\"email\":\"nd.a@timelab.com\",\"phoneNumber\":\"5201\"}\n"
+                + "{\"email\":\"nd.b@timelab.com\",\"phoneNumber\":\"5202\"}\n";
+        Path file = write("orders.ndjson", done
+                + "not json\n"
+                + "{\"email\":\"nd.c@timelab.com\",\"phoneNumber\":\"5203\"}\n");
+
+        // As left by an earlier run that stopped after the first two rows
+        ContactImportCheckpoint checkpoint = new ContactImportCheckpoint("nd-orders", Files.size(file));
+        checkpoint.setByteOffset(done.getBytes(StandardCharsets.UTF_8).length);
+        checkpoint.setRowsRead(2);
+        checkpoint.setRowsImported(2);
+        checkpointRepository.save(checkpoint);
+
+        ContactImportReport report = contactImportService.importFile(file, "nd-orders");
+
+        assertEquals(2, report.getResumedAtRow());
+        assertEquals(4, report.getRowsRead());
+        assertEquals(3, report.getRowsImported());
+        assertEquals(1, report.getRowsInvalid());
+        assertTrue(contactService.findKnown(new IdentifyRequest("nd.c@timelab.com", "5203")).isPresent());
+        assertTrue(contactService.findKnown(new IdentifyRequest("nd.a@timelab.com", "5201")).isEmpty());
+
+        // A completed import read again under its name adds nothing
+        long contacts = countContacts();
+        ContactImportReport again = contactImportService.importFile(file, "nd-orders");
+        assertEquals(4, again.getResumedAtRow());
+        assertEquals(4, again.getRowsRead());
+        assertEquals(contacts, countContacts());
+        assertNotNull(checkpointRepository.findById("nd-orders").orElseThrow().getCompletedAt());
+    }
+
+    private Path write(String name, String content) throws Exception {
+        return Files.writeString(dir.resolve(name), content);
+    }
+
+    private long countContacts() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM contacts", Long.class);
+    }
+}
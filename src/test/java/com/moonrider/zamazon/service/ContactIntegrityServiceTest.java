@@ -0,0 +1,103 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.ContactInvariantReport;
+import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.repository.ContactRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+
+public class ContactIntegrityServiceTest {
+
+    @Autowired
+    private ContactIntegrityService contactIntegrityService;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testBackfillResolvesReparentedChains() {
+        // Arrange - legacy rows without a root: C links to B, which was later
+        // re-parented under A, so C's linkedId no longer names its primary
+        long a = insertLegacy("legacy.a@timelab.com", "PRIMARY", null);
+        long b = insertLegacy("legacy.b@timelab.com", "SECONDARY", a);
+        long c = insertLegacy("legacy.c@timelab.com", "SECONDARY", b);
+        long d = insertLegacy("legacy.d@timelab.com", "PRIMARY", null);
+
+        // Act
+        long updated = contactIntegrityService.backfillRootPrimaryIds();
+
+        // Assert
+        assertTrue(updated >= 4);
+        assertEquals(a, rootOf(a));
+        assertEquals(a, rootOf(b));
+        assertEquals(a, rootOf(c));
+        assertEquals(d, rootOf(d));
+        assertEquals(0, contactIntegrityService.backfillRootPrimaryIds());
+    }
+
+    @Test
+    void testInvariantCheckerReportsBrokenRows() {
+        contactIntegrityService.backfillRootPrimaryIds();
+        ContactInvariantReport before = contactIntegrityService.checkInvariants();
+
+        // A secondary whose root names another secondary, as a lost merge would leave it
+        long primary = insertLegacy("broken.a@timelab.com", "PRIMARY", null);
+        long secondary = insertLegacy("broken.b@timelab.com", "SECONDARY", primary);
+        contactIntegrityService.backfillRootPrimaryIds();
+        jdbcTemplate.update("UPDATE contacts SET root_primary_id = ? WHERE id = ?", secondary, secondary);
+
+        ContactInvariantReport after = contactIntegrityService.checkInvariants();
+
+        assertEquals(before.getSecondariesWithInvalidRoot() + 1, after.getSecondariesWithInvalidRoot());
+        assertEquals(before.getContactsWithDivergentRoot() + 1, after.getContactsWithDivergentRoot());
+        assertFalse(after.isHealthy());
+    }
+
+    @Test
+    void testKeyBackfillMakesLegacyRowsFindable() {
+        // Arrange - a row stored before email_key and phone_key existed
+        long id = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR contacts_seq", Long.class);
+        jdbcTemplate.update("INSERT INTO contacts (id, email, phone_number, link_precedence, root_primary_id, "
+                + "created_at, updated_at) VALUES (?, 'Keys.Legacy@timelab.com', '(020) 7946-0000', 'PRIMARY', ?, "
+                + "CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", id, id);
+        assertTrue(contactRepository.findByEmailOrPhoneNumber("keys.legacy@timelab.com", null).isEmpty());
+
+        // Act
+        long updated = contactIntegrityService.backfillContactKeys();
+
+        // Assert
+        assertTrue(updated >= 1);
+        assertEquals(List.of(id), contactRepository.findByEmailOrPhoneNumber("keys.legacy@timelab.com", null)
+                .stream().map(Contact::getId).toList());
+        assertEquals(List.of(id), contactRepository.findByEmailOrPhoneNumber(null, "+1 020 7946 0000")
+                .stream().map(Contact::getId).toList());
+        assertEquals(0, contactIntegrityService.backfillContactKeys());
+    }
+
+    private long insertLegacy(String email, String precedence, Long linkedId) {
+        // A whole block of 50 ids is drawn per row, so Hibernate never hands out this id
+        long id = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR contacts_seq", Long.class);
+        jdbcTemplate.update("INSERT INTO contacts (id, email, linked_id, link_precedence, created_at, updated_at) "
+                + "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", id, email, linkedId, precedence);
+        return id;
+    }
+
+    private long rootOf(long id) {
+        return jdbcTemplate.queryForObject("SELECT root_primary_id FROM contacts WHERE id = ?", Long.class, id);
+    }
+}
@@ -0,0 +1,129 @@
+package com.moonrider.zamazon.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The worker only runs when a merge commits, so the pending state set up by
+// hand below stays pending until the test drains it
+@SpringBootTest(properties = {
+        "contact.backfill.enabled=false",
+        "contact.cache.enabled=false",
+        "contact.merge.async.enabled=true",
+        "contact.merge.async.chunk-size=2",
+        "contact.merge.async.poll-interval=1h",
+        "spring.datasource.url=jdbc:h2:mem:merge;LOCK_TIMEOUT=10000" })
+@ActiveProfiles("test")
+
+public class ContactMergeQueueTest {
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactMergeQueue mergeQueue;
+
+    @Autowired
+    private ContactExportService contactExportService;
+
+    @Autowired
+    private ContactIntegrityService contactIntegrityService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void testPendingMergeIsReadAsAppliedUntilDrained() throws Exception {
+        long rootId = contactService.identify(new IdentifyRequest("mq.a@timelab.com", "8101")).getPrimaryContactId();
+        long demotedId = contactService.identify(new IdentifyRequest("mq.b@timelab.com", "8102"))
+                .getPrimaryContactId();
+        List<Long> memberIds = new ArrayList<>();
+        for (String phoneNumber : List.of("8103", "8104", "8105")) {
+            memberIds.add(contactService.identify(new IdentifyRequest("mq.b@timelab.com", phoneNumber))
+                    .getSecondaryContactIds().get(memberIds.size()));
+        }
+
+        // As an identify in asynchronous mode leaves a merge of the two
+        jdbcTemplate.update("UPDATE contacts SET link_precedence = 'SECONDARY', linked_id = ?, root_primary_id = ?, "
+                + "version = version + 1 WHERE id = ?", rootId, rootId, demotedId);
+        jdbcTemplate.update("INSERT INTO contact_merge_intents (demoted_id, root_id, created_at) "
+                + "VALUES (?, ?, CURRENT_TIMESTAMP)", demotedId, rootId);
+
+        List<Long> secondaryIds = new ArrayList<>(memberIds);
+        secondaryIds.add(0, demotedId);
+        IdentifyResponse pending = contactService.findKnown(new IdentifyRequest("mq.b@timelab.com", "8104"))
+                .orElseThrow();
+        assertEquals(rootId, pending.getPrimaryContactId());
+        assertEquals(secondaryIds, pending.getSecondaryContactIds());
+        assertEquals(List.of("8101", "8102", "8103", "8104", "8105"), pending.getPhoneNumbers());
+        assertEquals(List.of(pending), exportMergeClusters());
+        assertTrue(contactIntegrityService.checkInvariants().isHealthy());
+
+        // Three members in chunks of two
+        assertEquals(1, mergeQueue.drain());
+        assertEquals(0, mergeQueue.getDepth());
+        assertEquals(3.0, meterRegistry.get("contact.merge.contacts.moved").counter().count());
+        for (Long memberId : memberIds) {
+            assertEquals(List.of(rootId, rootId), jdbcTemplate.queryForList(
+                    "SELECT root_primary_id FROM contacts WHERE id = ? UNION ALL "
+                    + "SELECT linked_id FROM contacts WHERE id = ?", Long.class, memberId, memberId));
+        }
+        assertEquals(pending, contactService.findKnown(new IdentifyRequest("mq.b@timelab.com", "8104"))
+                .orElseThrow());
+        assertEquals(List.of(pending), exportMergeClusters());
+        assertTrue(contactIntegrityService.checkInvariants().isHealthy());
+
+        // A merge decided by identify answers with the merged cluster and
+        // leaves the member of the demoted cluster to the queue
+        long newerId = contactService.identify(new IdentifyRequest("mq.c@timelab.com", "8106"))
+                .getPrimaryContactId();
+        long newerMemberId = contactService.identify(new IdentifyRequest("mq.c@timelab.com", "8107"))
+                .getSecondaryContactIds().get(0);
+        IdentifyResponse merged = contactService.identify(new IdentifyRequest("mq.c@timelab.com", "8101"));
+        assertEquals(rootId, merged.getPrimaryContactId());
+        assertTrue(merged.getSecondaryContactIds().containsAll(List.of(newerId, newerMemberId)));
+
+        mergeQueue.drain();
+        assertEquals(0, countIntents());
+        assertEquals(rootId, jdbcTemplate.queryForObject("SELECT root_primary_id FROM contacts WHERE id = ?",
+                Long.class, newerMemberId));
+        assertEquals(merged, contactService.findKnown(new IdentifyRequest("mq.c@timelab.com", "8107")).orElseThrow());
+        assertTrue(contactIntegrityService.checkInvariants().isHealthy());
+    }
+
+    private List<IdentifyResponse> exportMergeClusters() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        contactExportService.exportClusters(output);
+        List<IdentifyResponse> clusters = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            IdentifyResponse cluster = objectMapper.readValue(line, IdentifyResponse.class);
+            if (cluster.getEmails().stream().anyMatch(e -> e.startsWith("mq."))) {
+                clusters.add(cluster);
+            }
+        }
+        return clusters;
+    }
+
+    private long countIntents() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM contact_merge_intents", Long.class);
+    }
+}
@@ -0,0 +1,46 @@
+package com.moonrider.zamazon.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+
+public class ContactSequenceInitializerTest {
+
+    @Autowired
+    private ContactSequenceInitializer contactSequenceInitializer;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testSequenceIsMovedPastExistingIds() {
+        // Arrange - a row written with an id the sequence has not reached yet,
+        // as an IDENTITY column would have left behind
+        long existingId = nextSequenceValue() + 1000;
+        jdbcTemplate.update("INSERT INTO contacts (id, email, link_precedence, root_primary_id, created_at, "
+                + "updated_at) VALUES (?, ?, 'PRIMARY', ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)",
+                existingId, "sequence.ahead@timelab.com", existingId);
+
+        // Act
+        contactSequenceInitializer.alignSequence();
+
+        // Assert
+        assertTrue(nextSequenceValue() > existingId);
+
+        // Already ahead: aligning again leaves the sequence alone
+        long before = nextSequenceValue();
+        contactSequenceInitializer.alignSequence();
+        assertTrue(nextSequenceValue() > before);
+    }
+
+    private long nextSequenceValue() {
+        return jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR contacts_seq", Long.class);
+    }
+}
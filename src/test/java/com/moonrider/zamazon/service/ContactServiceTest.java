@@ -3,15 +3,22 @@ package com.moonrider.zamazon.service;
 import com.moonrider.zamazon.dto.IdentifyRequest;
 import com.moonrider.zamazon.dto.IdentifyResponse;
 import com.moonrider.zamazon.entity.Contact;
+import com.moonrider.zamazon.event.ClusterChangedEvent;
+import com.moonrider.zamazon.metrics.IdentifyMetrics;
 import com.moonrider.zamazon.repository.ContactRepository;
+import com.moonrider.zamazon.repository.IdentityLockRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 
 import java.time.LocalDateTime;
 import java.util.*;
@@ -27,6 +34,23 @@ public class ContactServiceTest {
     @Mock
     private ContactRepository contactRepository;
 
+    @Mock
+    private IdentityLockRepository identityLockRepository;
+
+    @Spy
+    private IdentityLockManager identityLockManager = new IdentityLockManager(16);
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private IdentifyMetrics identifyMetrics = new IdentifyMetrics(meterRegistry);
+
+    @Mock
+    private ContactMergeQueue mergeQueue;
+
     @InjectMocks
     private ContactService contactService;
 
@@ -37,12 +61,17 @@ public class ContactServiceTest {
     void setUp() {
         primaryContact = new Contact("doc@timelab.com", "123456789", Contact.LinkPrecedence.PRIMARY);
         primaryContact.setId(1L);
+        primaryContact.setRootPrimaryId(1L);
         primaryContact.setCreatedAt(LocalDateTime.now().minusDays(1));
 
         secondaryContact = new Contact("doc2@timelab.com", "987654321", Contact.LinkPrecedence.SECONDARY);
         secondaryContact.setId(2L);
         secondaryContact.setLinkedId(1L);
+        secondaryContact.setRootPrimaryId(1L);
         secondaryContact.setCreatedAt(LocalDateTime.now());
+
+        // No concurrent writer unless a test says otherwise
+        when(contactRepository.claimVersion(anyLong(), anyLong())).thenReturn(1);
     }
 
     @Test
@@ -76,8 +105,8 @@ public class ContactServiceTest {
 
         when(contactRepository.findByEmailOrPhoneNumber("doc@timelab.com", "123456789"))
                 .thenReturn(Arrays.asList(primaryContact));
-        when(contactRepository.findByLinkedId(1L))
-                .thenReturn(Arrays.asList(secondaryContact));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact));
 
         // Act
         IdentifyResponse response = contactService.identify(request);
@@ -87,6 +116,7 @@ public class ContactServiceTest {
         assertEquals(1L, response.getPrimaryContactId());
         assertTrue(response.getEmails().contains("doc@timelab.com"));
         assertTrue(response.getPhoneNumbers().contains("123456789"));
+        verify(eventPublisher, never()).publishEvent(any());
     }
 
     @Test
@@ -96,11 +126,12 @@ public class ContactServiceTest {
         Contact newSecondary = new Contact("doc@timelab.com", "999888777", Contact.LinkPrecedence.SECONDARY);
         newSecondary.setId(3L);
         newSecondary.setLinkedId(1L);
+        newSecondary.setRootPrimaryId(1L);
 
         when(contactRepository.findByEmailOrPhoneNumber("doc@timelab.com", "999888777"))
                 .thenReturn(Arrays.asList(primaryContact));
-        when(contactRepository.findByLinkedId(1L))
-                .thenReturn(Arrays.asList(secondaryContact));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact));
         when(contactRepository.save(any(Contact.class)))
                 .thenReturn(newSecondary);
 
@@ -111,6 +142,7 @@ public class ContactServiceTest {
         assertNotNull(response);
         assertEquals(1L, response.getPrimaryContactId());
         verify(contactRepository).save(any(Contact.class));
+        verify(eventPublisher).publishEvent(new ClusterChangedEvent(Set.of(1L)));
     }
 
     @Test
@@ -118,18 +150,15 @@ public class ContactServiceTest {
         // Arrange
         Contact secondPrimary = new Contact("doc3@timelab.com", "111222333", Contact.LinkPrecedence.PRIMARY);
         secondPrimary.setId(4L);
+        secondPrimary.setRootPrimaryId(4L);
         secondPrimary.setCreatedAt(LocalDateTime.now()); // Newer than first primary
 
         IdentifyRequest request = new IdentifyRequest("doc@timelab.com", "111222333");
 
         when(contactRepository.findByEmailOrPhoneNumber("doc@timelab.com", "111222333"))
                 .thenReturn(Arrays.asList(primaryContact, secondPrimary));
-        when(contactRepository.findByLinkedId(1L))
-                .thenReturn(Arrays.asList(secondaryContact));
-        when(contactRepository.findByLinkedId(4L))
-                .thenReturn(new ArrayList<>());
-        when(contactRepository.findActiveById(anyLong()))
-                .thenReturn(Optional.of(primaryContact));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L, 4L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact, secondPrimary));
 
         // Act
         IdentifyResponse response = contactService.identify(request);
@@ -137,7 +166,100 @@ public class ContactServiceTest {
         // Assert
         assertNotNull(response);
         assertEquals(1L, response.getPrimaryContactId()); // Oldest primary should remain
-        verify(contactRepository, atLeastOnce()).save(any(Contact.class));
+        assertEquals(List.of(2L, 4L), response.getSecondaryContactIds());
+
+        // The merge claims the versions it was decided on, then runs as two
+        // bulk statements, never a save per contact
+        verify(contactRepository).claimVersion(1L, 0L);
+        verify(contactRepository).claimVersion(4L, 0L);
+        verify(contactRepository).demotePrimaries(eq(1L), eq(Set.of(4L)), any(LocalDateTime.class));
+        verify(contactRepository).reparentClusters(eq(1L), eq(Set.of(4L)), any(LocalDateTime.class));
+        verify(contactRepository, never()).save(any(Contact.class));
+        verify(eventPublisher).publishEvent(new ClusterChangedEvent(Set.of(1L, 4L)));
+        assertEquals(Contact.LinkPrecedence.SECONDARY, secondPrimary.getLinkPrecedence());
+        assertEquals(1L, secondPrimary.getLinkedId());
+        assertEquals(1L, secondPrimary.getRootPrimaryId());
+    }
+
+    @Test
+    void testMergeOfChangedClusterIsRejected() {
+        Contact secondPrimary = new Contact("doc3@timelab.com", "111222333", Contact.LinkPrecedence.PRIMARY);
+        secondPrimary.setId(4L);
+        secondPrimary.setRootPrimaryId(4L);
+        secondPrimary.setCreatedAt(LocalDateTime.now());
+        secondPrimary.setVersion(3L);
+
+        when(contactRepository.findByEmailOrPhoneNumber("doc@timelab.com", "111222333"))
+                .thenReturn(Arrays.asList(primaryContact, secondPrimary));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L, 4L)))
+                .thenReturn(Arrays.asList(primaryContact, secondPrimary));
+        // Another writer has merged contact 4 away since it was read
+        when(contactRepository.claimVersion(4L, 3L)).thenReturn(0);
+
+        assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> contactService.identify(new IdentifyRequest("doc@timelab.com", "111222333")));
+        verify(contactRepository, never()).demotePrimaries(anyLong(), anyCollection(), any(LocalDateTime.class));
+        verify(contactRepository, never()).reparentClusters(anyLong(), anyCollection(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void testAsyncMergeLeavesMembersToMergeQueue() {
+        Contact secondPrimary = new Contact("doc3@timelab.com", "111222333", Contact.LinkPrecedence.PRIMARY);
+        secondPrimary.setId(4L);
+        secondPrimary.setRootPrimaryId(4L);
+        secondPrimary.setCreatedAt(LocalDateTime.now());
+        Contact member = new Contact("doc4@timelab.com", "111222333", Contact.LinkPrecedence.SECONDARY);
+        member.setId(5L);
+        member.setLinkedId(4L);
+        member.setRootPrimaryId(4L);
+        member.setCreatedAt(LocalDateTime.now());
+
+        when(mergeQueue.isEnabled()).thenReturn(true);
+        when(mergeQueue.isActive()).thenReturn(true);
+        when(mergeQueue.pendingRoots(anyCollection())).thenReturn(new HashMap<>());
+        when(contactRepository.findByEmailOrPhoneNumber("doc@timelab.com", "111222333"))
+                .thenReturn(Arrays.asList(primaryContact, secondPrimary, member));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L, 4L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact, secondPrimary, member));
+
+        IdentifyResponse response = contactService.identify(new IdentifyRequest("doc@timelab.com", "111222333"));
+
+        // The response already has the merged cluster; only the demoted
+        // primary is written now, its member is moved by the queue
+        assertEquals(1L, response.getPrimaryContactId());
+        assertEquals(List.of(2L, 4L, 5L), response.getSecondaryContactIds());
+        verify(contactRepository).demotePrimaries(eq(1L), eq(Set.of(4L)), any(LocalDateTime.class));
+        verify(mergeQueue).record(eq(1L), eq(Set.of(4L)), anyMap(), any(LocalDateTime.class));
+        verify(contactRepository, never()).reparentClusters(anyLong(), anyCollection(), any(LocalDateTime.class));
+        verify(contactRepository, never()).assignRootPrimaryId(anyLong(), anyCollection());
+    }
+
+    @Test
+    void testFindKnownAnswersClusterWithPendingMerge() {
+        // Contact 4 has been demoted under 1; its member 5 has not been moved yet
+        Contact demoted = new Contact("doc3@timelab.com", "111222333", Contact.LinkPrecedence.SECONDARY);
+        demoted.setId(4L);
+        demoted.setLinkedId(1L);
+        demoted.setRootPrimaryId(1L);
+        demoted.setCreatedAt(LocalDateTime.now());
+        Contact member = new Contact("doc4@timelab.com", "444555666", Contact.LinkPrecedence.SECONDARY);
+        member.setId(5L);
+        member.setLinkedId(4L);
+        member.setRootPrimaryId(4L);
+        member.setCreatedAt(LocalDateTime.now());
+
+        when(mergeQueue.isActive()).thenReturn(true);
+        when(mergeQueue.pendingRoots(Set.of(4L))).thenReturn(new HashMap<>(Map.of(4L, 1L)));
+        when(contactRepository.findByEmailOrPhoneNumber("doc4@timelab.com", "444555666"))
+                .thenReturn(List.of(member));
+        when(contactRepository.findByRootPrimaryIdIn(Set.of(1L, 4L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact, demoted, member));
+
+        IdentifyResponse response = contactService.findKnown(new IdentifyRequest("doc4@timelab.com", "444555666"))
+                .orElseThrow();
+
+        assertEquals(1L, response.getPrimaryContactId());
+        assertEquals(List.of(2L, 4L, 5L), response.getSecondaryContactIds());
     }
 
     @Test
@@ -166,19 +288,19 @@ public class ContactServiceTest {
         Contact secondary1 = new Contact("doc.alt1@timelab.com", null, Contact.LinkPrecedence.SECONDARY);
         secondary1.setId(5L);
         secondary1.setLinkedId(1L);
+        secondary1.setRootPrimaryId(1L);
 
         Contact secondary2 = new Contact(null, "444555666", Contact.LinkPrecedence.SECONDARY);
         secondary2.setId(6L);
         secondary2.setLinkedId(1L);
+        secondary2.setRootPrimaryId(1L);
 
         IdentifyRequest request = new IdentifyRequest("doc.alt1@timelab.com", "444555666");
 
         when(contactRepository.findByEmailOrPhoneNumber("doc.alt1@timelab.com", "444555666"))
                 .thenReturn(Arrays.asList(secondary1, secondary2));
-        when(contactRepository.findActiveById(1L))
-                .thenReturn(Optional.of(primaryContact));
-        when(contactRepository.findByLinkedId(1L))
-                .thenReturn(Arrays.asList(secondaryContact, secondary1, secondary2));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact, secondary1, secondary2));
 
         // Act
         IdentifyResponse response = contactService.identify(request);
@@ -189,5 +311,131 @@ public class ContactServiceTest {
         assertEquals(3, response.getSecondaryContactIds().size());
         assertTrue(response.getEmails().contains("doc.alt1@timelab.com"));
         assertTrue(response.getPhoneNumbers().contains("444555666"));
+
+        // The identity stripes are locked before anything is read
+        verify(identityLockRepository).lockStripes(
+                identityLockManager.stripesFor("doc.alt1@timelab.com", "444555666"));
+
+        // The cluster is one lookup on the denormalized root, not a per-node walk
+        verify(contactRepository, times(1)).findByRootPrimaryIdIn(anyCollection());
+        verify(contactRepository, never()).findRootIds(anyCollection());
+        verify(contactRepository, never()).findActiveById(anyLong());
+        verify(contactRepository, never()).findByLinkedId(anyLong());
+    }
+
+    @Test
+    void testLegacyContactsWithoutRootAreResolvedAndStamped() {
+        // Arrange - rows written before rootPrimaryId existed
+        primaryContact.setRootPrimaryId(null);
+        secondaryContact.setRootPrimaryId(null);
+
+        IdentifyRequest request = new IdentifyRequest("doc2@timelab.com", "987654321");
+
+        when(contactRepository.findByEmailOrPhoneNumber("doc2@timelab.com", "987654321"))
+                .thenReturn(Arrays.asList(secondaryContact));
+        when(contactRepository.findRootIds(List.of(2L)))
+                .thenReturn(List.of(1L));
+        when(contactRepository.findClusterByRootIds(List.of(1L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact));
+
+        // Act
+        IdentifyResponse response = contactService.identify(request);
+
+        // Assert
+        assertEquals(1L, response.getPrimaryContactId());
+        assertEquals(List.of(2L), response.getSecondaryContactIds());
+        assertEquals(1L, primaryContact.getRootPrimaryId());
+        assertEquals(1L, secondaryContact.getRootPrimaryId());
+        verify(contactRepository, never()).findByRootPrimaryIdIn(anyCollection());
+        verify(contactRepository).assignRootPrimaryId(1L, List.of(1L, 2L));
+    }
+
+    @Test
+    void testFindKnownAnswersKnownPairWithoutWriting() {
+        // Arrange
+        IdentifyRequest request = new IdentifyRequest("doc2@timelab.com", "123456789");
+
+        when(contactRepository.findByEmailOrPhoneNumber("doc2@timelab.com", "123456789"))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact));
+
+        // Act
+        Optional<IdentifyResponse> response = contactService.findKnown(request);
+
+        // Assert
+        assertTrue(response.isPresent());
+        assertEquals(1L, response.get().getPrimaryContactId());
+        assertEquals(List.of(2L), response.get().getSecondaryContactIds());
+        verify(identityLockRepository, never()).lockStripes(anyCollection());
+        verify(contactRepository, never()).save(any(Contact.class));
+        verify(contactRepository, never()).assignRootPrimaryId(anyLong(), anyCollection());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void testFindKnownDefersNewInformationToWritePath() {
+        // Arrange
+        IdentifyRequest request = new IdentifyRequest("doc@timelab.com", "999888777");
+
+        when(contactRepository.findByEmailOrPhoneNumber("doc@timelab.com", "999888777"))
+                .thenReturn(Arrays.asList(primaryContact));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact));
+
+        // Act & Assert
+        assertTrue(contactService.findKnown(request).isEmpty());
+        assertTrue(contactService.findKnown(new IdentifyRequest("new@timelab.com", null)).isEmpty());
+        verify(contactRepository, never()).save(any(Contact.class));
+    }
+
+    @Test
+    void testFindKnownDefersPendingMergeToWritePath() {
+        // Arrange - both values are known, but to two different primaries
+        Contact secondPrimary = new Contact("doc3@timelab.com", "111222333", Contact.LinkPrecedence.PRIMARY);
+        secondPrimary.setId(4L);
+        secondPrimary.setRootPrimaryId(4L);
+        secondPrimary.setCreatedAt(LocalDateTime.now());
+
+        IdentifyRequest request = new IdentifyRequest("doc@timelab.com", "111222333");
+
+        when(contactRepository.findByEmailOrPhoneNumber("doc@timelab.com", "111222333"))
+                .thenReturn(Arrays.asList(primaryContact, secondPrimary));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L, 4L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact, secondPrimary));
+
+        // Act & Assert
+        assertTrue(contactService.findKnown(request).isEmpty());
+        verify(contactRepository, never()).demotePrimaries(anyLong(), anyCollection(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void testFindKnownRejectsInvalidRequest() {
+        assertThrows(IllegalArgumentException.class,
+                () -> contactService.findKnown(new IdentifyRequest(null, null)));
+    }
+
+    @Test
+    void testIdentifyPhasesAreTimed() {
+        // Arrange
+        IdentifyRequest request = new IdentifyRequest("doc@timelab.com", "999888777");
+        Contact newSecondary = new Contact("doc@timelab.com", "999888777", Contact.LinkPrecedence.SECONDARY);
+        newSecondary.setId(3L);
+        newSecondary.setRootPrimaryId(1L);
+
+        when(contactRepository.findByEmailOrPhoneNumber("doc@timelab.com", "999888777"))
+                .thenReturn(Arrays.asList(primaryContact));
+        when(contactRepository.findByRootPrimaryIdIn(List.of(1L)))
+                .thenReturn(Arrays.asList(primaryContact, secondaryContact));
+        when(contactRepository.save(any(Contact.class))).thenReturn(newSecondary);
+
+        // Act
+        contactService.identify(request);
+
+        // Assert
+        for (String phase : List.of("lock", "lookup", "cluster", "create", "consolidation", "response")) {
+            assertEquals(1, meterRegistry.get("identify.phase").tag("phase", phase).timer().count(), phase);
+        }
+        assertEquals(2.0, meterRegistry.get("identify.cluster.size").summary().totalAmount());
     }
 }
@@ -0,0 +1,108 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdentifyCoalescerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final IdentifyCoalescer coalescer = new IdentifyCoalescer(true, meterRegistry);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(5);
+
+    @Test
+    void testConcurrentIdenticalRequestsShareOneComputation() throws Exception {
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<IdentifyCoalescer.Shared<Integer>> leader = executor.submit(() -> coalescer.run(
+                new IdentifyRequest("doc@timelab.com", "555-0100"), () -> {
+                    started.countDown();
+                    await(release);
+                    return computations.incrementAndGet();
+                }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Other spellings of the same pair join the computation in flight
+        List<Future<IdentifyCoalescer.Shared<Integer>>> followers = new ArrayList<>();
+        for (String email : List.of("DOC@timelab.com", " doc@timelab.com", "doc@TIMELAB.com", "doc@timelab.com")) {
+            followers.add(executor.submit(() -> coalescer.run(new IdentifyRequest(email, "+1 555 0100"),
+                    computations::incrementAndGet)));
+        }
+        while (followerCount() < 4) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals(new IdentifyCoalescer.Shared<>(1, false), leader.get(5, TimeUnit.SECONDS));
+        for (Future<IdentifyCoalescer.Shared<Integer>> follower : followers) {
+            assertEquals(new IdentifyCoalescer.Shared<>(1, true), follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, computations.get());
+        assertEquals(1.0, meterRegistry.counter("identify.coalescing.requests", "role", "leader").count());
+        assertEquals(0.0, meterRegistry.get("identify.coalescing.in.flight").gauge().value());
+
+        // Once the answer is out, the next request computes afresh
+        assertEquals(new IdentifyCoalescer.Shared<>(2, false), coalescer.run(
+                new IdentifyRequest("doc@timelab.com", "555-0100"), computations::incrementAndGet));
+        executor.shutdown();
+    }
+
+    @Test
+    void testFollowersGetTheLeadersException() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IdentifyRequest request = new IdentifyRequest("doc@timelab.com", null);
+
+        Future<?> leader = executor.submit(() -> coalescer.run(request, () -> {
+            started.countDown();
+            await(release);
+            throw new IllegalStateException("database down");
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<?> follower = executor.submit(() -> coalescer.run(request, () -> "not run"));
+        while (followerCount() < 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Future<?> future : List.of(leader, follower)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertEquals("database down", e.getCause().getMessage());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void testKeysSeparateDifferentPairs() {
+        assertEquals(IdentifyCoalescer.keyOf(new IdentifyRequest(" Doc@timelab.com", "(555) 0100")),
+                IdentifyCoalescer.keyOf(new IdentifyRequest("doc@timelab.com", "+15550100")));
+        assertNotEquals(IdentifyCoalescer.keyOf(new IdentifyRequest("doc@timelab.com", null)),
+                IdentifyCoalescer.keyOf(new IdentifyRequest("doc@timelab.com", "5550100")));
+        // Values that normalize to nothing are never coalesced
+        assertNull(IdentifyCoalescer.keyOf(new IdentifyRequest(" ", "5550100")));
+        assertNull(IdentifyCoalescer.keyOf(new IdentifyRequest(null, null)));
+    }
+
+    private double followerCount() {
+        return meterRegistry.counter("identify.coalescing.requests", "role", "follower").count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
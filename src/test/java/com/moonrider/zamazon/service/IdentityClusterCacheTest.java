@@ -0,0 +1,105 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.event.ClusterChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdentityClusterCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private IdentityClusterCache cache;
+
+    private IdentifyResponse cluster;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new IdentityClusterCache(true, 1000, 1000, Duration.ofMinutes(10), meterRegistry);
+        cluster = new IdentifyResponse(1L, List.of("doc@timelab.com", "doc2@timelab.com"),
+                List.of("123456789"), List.of(2L));
+        cluster.setClusterVersion(3L);
+    }
+
+    @Test
+    void testKnownPairIsAHit() {
+        cache.put(cluster, cache.generation());
+
+        IdentifyResponse found = cache.lookup(new IdentifyRequest("doc2@timelab.com", "123456789")).orElseThrow();
+        assertEquals(cluster, found);
+        assertTrue(cache.isCurrent(found, 3L));
+        assertEquals(cluster, cache.lookup(new IdentifyRequest(null, "123456789")).orElseThrow());
+        assertEquals(1.0, meterRegistry.get("identity.cluster.cache.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void testClusterChangedElsewhereIsDropped() {
+        cache.put(cluster, cache.generation());
+        IdentifyRequest request = new IdentifyRequest("doc@timelab.com", "123456789");
+
+        // Another instance moved the primary's version, or merged it away
+        assertFalse(cache.isCurrent(cache.lookup(request).orElseThrow(), 4L));
+        assertTrue(cache.lookup(request).isEmpty());
+
+        cache.put(cluster, cache.generation());
+        assertFalse(cache.isCurrent(cache.lookup(request).orElseThrow(), null));
+        assertEquals(2.0, meterRegistry.get("identity.cluster.cache.requests").tag("result", "stale").counter()
+                .count());
+        assertEquals(0.0, meterRegistry.get("identity.cluster.cache.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void testNewInformationIsAMiss() {
+        cache.put(cluster, cache.generation());
+
+        assertTrue(cache.lookup(new IdentifyRequest("doc@timelab.com", "555000000")).isEmpty());
+        assertTrue(cache.lookup(new IdentifyRequest("new@timelab.com", null)).isEmpty());
+        assertEquals(2.0, meterRegistry.get("identity.cluster.cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void testPairSpanningTwoClustersIsAMiss() {
+        cache.put(cluster, cache.generation());
+        cache.put(new IdentifyResponse(5L, List.of("other@timelab.com"), List.of("999"), List.of()),
+                cache.generation());
+
+        assertTrue(cache.lookup(new IdentifyRequest("doc@timelab.com", "999")).isEmpty());
+    }
+
+    @Test
+    void testClusterChangeInvalidates() {
+        cache.put(cluster, cache.generation());
+
+        cache.onClusterChanged(new ClusterChangedEvent(Set.of(1L, 5L)));
+
+        assertTrue(cache.lookup(new IdentifyRequest("doc@timelab.com", "123456789")).isEmpty());
+    }
+
+    @Test
+    void testResponseComputedDuringAChangeIsNotCached() {
+        long generation = cache.generation();
+        cache.invalidate(Set.of(7L));
+
+        cache.put(cluster, generation);
+
+        assertTrue(cache.lookup(new IdentifyRequest("doc@timelab.com", "123456789")).isEmpty());
+    }
+
+    @Test
+    void testDisabledCacheNeverHits() {
+        IdentityClusterCache disabled = new IdentityClusterCache(false, 1000, 1000, Duration.ofMinutes(10),
+                meterRegistry);
+        disabled.put(cluster, disabled.generation());
+
+        assertTrue(disabled.lookup(new IdentifyRequest("doc@timelab.com", "123456789")).isEmpty());
+    }
+}
@@ -0,0 +1,140 @@
+package com.moonrider.zamazon.service;
+
+import com.moonrider.zamazon.dto.IdentifyRequest;
+import com.moonrider.zamazon.dto.IdentifyResponse;
+import com.moonrider.zamazon.dto.IdentityGraphReport;
+import com.moonrider.zamazon.exception.IdentityGraphUnavailableException;
+import com.moonrider.zamazon.util.ContactNormalizer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Checks graph answers against what the JPA stack reads back once the
+// write-behind log has drained
+@SpringBootTest(properties = {
+        "contact.graph.enabled=true",
+        "contact.backfill.enabled=false",
+        "contact.graph.write-max-backoff=200ms",
+        "contact.graph.write-admission-timeout=200ms",
+        "spring.datasource.url=jdbc:h2:mem:graph;LOCK_TIMEOUT=10000" })
+@ActiveProfiles("test")
+
+public class IdentityGraphTest {
+
+    @Autowired
+    private IdentityGraph identityGraph;
+
+    @Autowired
+    private IdentityGraphWriter identityGraphWriter;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testGraphAnswersMatchTableAfterWriteBehind() {
+        // Random requests over a small key space, so primaries, secondaries
+        // and merges all occur
+        Random random = new Random(42);
+        List<IdentifyRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            String email = random.nextInt(5) == 0 ? null : "graph" + random.nextInt(40) + "@timelab.com";
+            String phone = email != null && random.nextInt(5) == 0 ? null : "77" + random.nextInt(40);
+            IdentifyRequest request = new IdentifyRequest(email, phone);
+            identityGraph.identify(request);
+            requests.add(request);
+        }
+        identityGraphWriter.flush();
+
+        // Every request is now known, so the table read answers it without a write
+        for (IdentifyRequest request : requests) {
+            IdentifyResponse fromGraph = identityGraph.identify(request);
+            assertEquals(Optional.of(fromGraph), contactService.findKnown(request), request.toString());
+        }
+
+        IdentityGraphReport report = identityGraph.checkConsistency();
+        assertTrue(report.isConsistent(), report.toString());
+        assertEquals(0, report.getFailedWrites());
+    }
+
+    @Test
+    void testRebuildLoadsClustersWrittenThroughTheTable() {
+        IdentifyResponse first = contactService.identify(new IdentifyRequest("rebuild.a@timelab.com", "8801"));
+        contactService.identify(new IdentifyRequest("rebuild.b@timelab.com", "8802"));
+        contactService.identify(new IdentifyRequest("rebuild.a@timelab.com", "8803"));
+        IdentifyRequest merge = new IdentifyRequest("rebuild.b@timelab.com", "8801");
+        IdentifyResponse merged = contactService.identify(merge);
+
+        identityGraph.rebuild();
+
+        assertEquals(merged, identityGraph.identify(merge));
+        assertEquals(first.getPrimaryContactId(), identityGraph.identify(
+                new IdentifyRequest(null, "8803")).getPrimaryContactId());
+        assertTrue(identityGraph.checkConsistency().isConsistent());
+    }
+
+    @Test
+    void testRebuildConsolidatesClustersSharingAKey() {
+        // Two primaries holding the same email, as rows written outside
+        // identify could leave them
+        long older = insertPrimary("shared@timelab.com", "8901", "2024-01-01 00:00:00");
+        long newer = insertPrimary("shared@timelab.com", "8902", "2024-01-02 00:00:00");
+
+        identityGraph.rebuild();
+        IdentityGraphReport report = identityGraph.checkConsistency();
+
+        assertTrue(report.isConsistent(), report.toString());
+        assertEquals("SECONDARY", jdbcTemplate.queryForObject(
+                "SELECT link_precedence FROM contacts WHERE id = ?", String.class, newer));
+        assertEquals(older, jdbcTemplate.queryForObject(
+                "SELECT root_primary_id FROM contacts WHERE id = ?", Long.class, newer));
+    }
+
+    @Test
+    void testFailingWritesAreRetriedWhileIdentifyIsTurnedAway() throws InterruptedException {
+        // The table goes away, so the next batch fails until it is back
+        jdbcTemplate.execute("ALTER TABLE contacts RENAME TO contacts_offline");
+        IdentifyResponse queued;
+        try {
+            queued = identityGraph.identify(new IdentifyRequest("offline@timelab.com", "8951"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (identityGraphWriter.isHealthy()) {
+                assertTrue(System.nanoTime() < deadline, "write did not fail");
+                Thread.sleep(10);
+            }
+
+            assertThrows(IdentityGraphUnavailableException.class,
+                    () -> identityGraph.identify(new IdentifyRequest("offline@timelab.com", "8952")));
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE contacts_offline RENAME TO contacts");
+        }
+
+        // The queued write goes through once the table is back
+        identityGraphWriter.flush();
+        assertTrue(identityGraphWriter.isHealthy());
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM contacts WHERE id = ?", Integer.class,
+                queued.getPrimaryContactId()));
+        IdentityGraphReport report = identityGraph.checkConsistency();
+        assertTrue(report.isConsistent(), report.toString());
+        assertEquals(0, report.getFailedWrites());
+    }
+
+    private long insertPrimary(String email, String phoneNumber, String createdAt) {
+        // A whole block of 50 ids is drawn per row, so no other writer hands out this id
+        long id = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR contacts_seq", Long.class);
+        jdbcTemplate.update("INSERT INTO contacts (id, email, phone_number, email_key, phone_key, link_precedence, "
+                + "root_primary_id, created_at, updated_at) VALUES (?, ?, ?, ?, ?, 'PRIMARY', ?, TIMESTAMP '"
+                + createdAt + "', CURRENT_TIMESTAMP)", id, email, phoneNumber, ContactNormalizer.emailKey(email),
+                ContactNormalizer.phoneKey(phoneNumber), id);
+        return id;
+    }
+}
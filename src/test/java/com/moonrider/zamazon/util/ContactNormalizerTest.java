@@ -0,0 +1,74 @@
+package com.moonrider.zamazon.util;
+
+import com.moonrider.zamazon.entity.Contact;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContactNormalizerTest {
+
+    @Test
+    void testEmailIsTrimmedAndLowerCased() {
+        assertEquals("doc@timelab.com", ContactNormalizer.normalizeEmail("  Doc@TimeLab.COM "));
+        assertNull(ContactNormalizer.normalizeEmail("   "));
+        assertNull(ContactNormalizer.normalizeEmail(null));
+        assertEquals(ContactNormalizer.emailKey("doc@timelab.com"), ContactNormalizer.emailKey(" DOC@timelab.com"));
+        assertNotEquals(ContactNormalizer.emailKey("doc@timelab.com"), ContactNormalizer.emailKey("doc2@timelab.com"));
+    }
+
+    @Test
+    void testPhoneNumberIsReducedToE164() {
+        assertEquals("+15550100", ContactNormalizer.normalizePhoneNumber("+1 555-0100"));
+        assertEquals("+15550100", ContactNormalizer.normalizePhoneNumber("5550100"));
+        assertEquals("+15550100", ContactNormalizer.normalizePhoneNumber("001 (555) 0100"));
+        assertEquals("+442079460000", ContactNormalizer.normalizePhoneNumber("+44 20 7946 0000"));
+        assertNull(ContactNormalizer.normalizePhoneNumber("n/a"));
+        assertNull(ContactNormalizer.normalizePhoneNumber(null));
+    }
+
+    @Test
+    void testFullNumberWithoutPlusKeepsItsCountryCode() {
+        assertEquals("+15550100100", ContactNormalizer.normalizePhoneNumber("1 (555) 010-0100"));
+        assertEquals("+15550100100", ContactNormalizer.normalizePhoneNumber("+1 555 010 0100"));
+        assertEquals("+15550100100", ContactNormalizer.normalizePhoneNumber("(555) 010-0100"));
+        assertEquals("+15550100100", ContactNormalizer.normalizePhoneNumber("001 555 010 0100"));
+        assertEquals(ContactNormalizer.phoneKey("(555) 010-0100"), ContactNormalizer.phoneKey("1-555-010-0100"));
+
+        // Only a full-length number can already carry the country code
+        assertEquals("+115550100", ContactNormalizer.normalizePhoneNumber("155 50100"));
+    }
+
+    @Test
+    void testRequestNeedsAValueThatNormalizes() {
+        assertTrue(ContactNormalizer.isIdentifiable("doc@timelab.com", "abc"));
+        assertTrue(ContactNormalizer.isIdentifiable("   ", "555-0100"));
+        assertFalse(ContactNormalizer.isIdentifiable("   ", "--"));
+        assertFalse(ContactNormalizer.isIdentifiable(null, "abc"));
+        assertFalse(ContactNormalizer.isIdentifiable(null, null));
+    }
+
+    @Test
+    void testPhoneKeyIsTheNumberUnlessItCannotBeE164() {
+        assertEquals(15550100L, ContactNormalizer.phoneKey("+1 555-0100"));
+        assertEquals(15550100L, ContactNormalizer.phoneKey("555.0100"));
+        assertEquals(442079460000L, ContactNormalizer.phoneKey("0044 20 7946 0000"));
+
+        // Too long for E.164, or a leading zero the number would lose: hashed
+        // into a range no numeric key reaches
+        long tooLong = ContactNormalizer.phoneKey("+1234567890123456");
+        long leadingZero = ContactNormalizer.phoneKey("+0123");
+        assertTrue(tooLong >= 1L << 62, Long.toString(tooLong));
+        assertTrue(leadingZero >= 1L << 62, Long.toString(leadingZero));
+        assertNotEquals(ContactNormalizer.phoneKey("+123"), leadingZero);
+    }
+
+    @Test
+    void testContactDerivesItsKeys() {
+        Contact contact = new Contact("Doc@TimeLab.com", "+1 555-0100", Contact.LinkPrecedence.PRIMARY);
+        assertEquals(ContactNormalizer.emailKey("doc@timelab.com"), contact.getEmailKey());
+        assertEquals(15550100L, contact.getPhoneKey());
+
+        contact.setPhoneNumber(null);
+        assertNull(contact.getPhoneKey());
+    }
+}